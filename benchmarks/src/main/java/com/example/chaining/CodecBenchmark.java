@@ -0,0 +1,56 @@
+package com.example.chaining;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request encoding and response decoding per model family, at a typical prompt
+ * size and at the 100 KB+ size the documentation stage reaches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+
+    @Param({"anthropic.claude-3-haiku-20240307-v1:0", "amazon.titan-text-express-v1", "amazon.nova-lite-v1:0"})
+    public String modelId;
+
+    @Param({"2048", "131072"})
+    public int payloadChars;
+
+    private ModelCodec codec;
+    private String prompt;
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        codec = ModelCodec.forModel(modelId);
+        prompt = Payloads.text(payloadChars);
+        response = FakeBedrockRuntimeClient.responseFor(modelId, payloadChars);
+    }
+
+    @Benchmark
+    public byte[] encodeRequest() throws IOException {
+        return codec.encodeRequest("You are a Python developer.", prompt, 4000, 0.7);
+    }
+
+    @Benchmark
+    public ModelCodec.Decoded decodeResponse() throws IOException {
+        return codec.decodeResponse(response);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for Bedrock Runtime. Returns a canned response in the
+ * requesting model family's shape after a fixed latency, so benchmarks measure
+ * the Java side rather than the network or the model.
+ */
+class FakeBedrockRuntimeClient implements BedrockRuntimeClient {
+    private final long latencyNanos;
+    private final byte[] claudeResponse;
+    private final byte[] titanResponse;
+    private final byte[] novaResponse;
+
+    FakeBedrockRuntimeClient(long latencyMicros, int responseChars) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        String text = Payloads.jsonEscaped(responseChars);
+        this.claudeResponse = ("{\"id\":\"msg_bench\",\"type\":\"message\",\"role\":\"assistant\","
+            + "\"content\":[{\"type\":\"text\",\"text\":\"" + text + "\"}],"
+            + "\"stop_reason\":\"end_turn\",\"usage\":{\"input_tokens\":100,\"output_tokens\":200}}")
+            .getBytes(StandardCharsets.UTF_8);
+        this.titanResponse = ("{\"inputTextTokenCount\":100,\"results\":[{\"tokenCount\":200,"
+            + "\"outputText\":\"" + text + "\",\"completionReason\":\"FINISH\"}]}")
+            .getBytes(StandardCharsets.UTF_8);
+        this.novaResponse = ("{\"output\":{\"message\":{\"role\":\"assistant\",\"content\":[{\"text\":\"" + text + "\"}]}},"
+            + "\"stopReason\":\"end_turn\",\"usage\":{\"inputTokens\":100,\"outputTokens\":200}}")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] responseFor(String modelId, int responseChars) {
+        return new FakeBedrockRuntimeClient(0, responseChars).bodyFor(modelId);
+    }
+
+    @Override
+    public InvokeModelResponse invokeModel(InvokeModelRequest request) {
+        if (latencyNanos > 0) {
+            long deadline = System.nanoTime() + latencyNanos;
+            while (System.nanoTime() < deadline) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        return InvokeModelResponse.builder()
+            .contentType("application/json")
+            .body(SdkBytes.fromByteArrayUnsafe(bodyFor(request.modelId())))
+            .build();
+    }
+
+    private byte[] bodyFor(String modelId) {
+        if (modelId.contains("anthropic.claude")) {
+            return claudeResponse;
+        } else if (modelId.contains("amazon.titan")) {
+            return titanResponse;
+        }
+        return novaResponse;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.chaining;
+
+/**
+ * Deterministic filler text that looks roughly like model output (prose,
+ * newlines, quotes and a fenced code block), so JSON escaping is exercised.
+ */
+final class Payloads {
+    private static final String SAMPLE = "## Board\nThe board is a 3x3 grid; players alternate placing \"X\" and \"O\".\n"
+        + "```python\ndef winner(board):\n    for line in LINES:\n        if board[line[0]] == board[line[1]] == board[line[2]] != ' ':\n"
+        + "            return board[line[0]]\n    return None\n```\n";
+
+    private Payloads() {
+    }
+
+    static String text(int chars) {
+        StringBuilder text = new StringBuilder(chars + SAMPLE.length());
+        while (text.length() < chars) {
+            text.append(SAMPLE);
+        }
+        text.setLength(chars);
+        return text.toString();
+    }
+
+    static String jsonEscaped(int chars) {
+        return text(chars).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.chaining;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documentation-stage prompt assembly: architecture, code and tests streamed in
+ * as chunks and referenced as artifacts around the fixed instructions, as in
+ * buildGameGraph. The time includes emitting the chunks, since each publisher
+ * encodes its chunks into the artifact as they arrive, and then completing the
+ * publishers and linking the prompt; the compaction parameter adds the scan for
+ * repeated paragraphs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PromptAssemblyBenchmark {
+
+    /** Size of each of the three upstream outputs. */
+    @Param({"8192", "65536"})
+    public int stageChars;
+
+    /** 1 models whole-response mode; larger values model token streaming. */
+    @Param({"1", "256"})
+    public int chunksPerStage;
+
+    /** A PromptAssembler.Compaction name. */
+    @Param({"NONE", "DEDUP"})
+    public String compaction;
+
+    private String[] chunks;
+
+    @Setup
+    public void setup() {
+        String text = Payloads.text(stageChars);
+        int chunkSize = Math.max(1, stageChars / chunksPerStage);
+        chunks = new String[(stageChars + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = text.substring(i * chunkSize, Math.min(stageChars, (i + 1) * chunkSize));
+        }
+    }
+
+    @Benchmark
+    public Prompt documentationPrompt() throws Exception {
+        ChunkPublisher architecture = new ChunkPublisher();
+        ChunkPublisher code = new ChunkPublisher();
+        ChunkPublisher tests = new ChunkPublisher();
+
+        // Assembled before any chunk arrives, as the scheduler does
+        CompletableFuture<Prompt> prompt = new PromptAssembler(PromptAssembler.Compaction.valueOf(compaction))
+            .literal("Act as a technical writer. Create comprehensive documentation for this project.\n\nArchitecture:\n")
+            .output(architecture)
+            .literal("\n\nCode Implementation:\n")
+            .output(code)
+            .literal("\n\nTest Suite:\n")
+            .output(tests)
+            .literal("\n\nCreate documentation that explains the architecture decisions.")
+            .assemble();
+
+        for (ChunkPublisher upstream : new ChunkPublisher[] {architecture, code, tests}) {
+            for (String chunk : chunks) {
+                upstream.emit(chunk);
+            }
+            upstream.complete();
+        }
+        return prompt.get();
+    }
+}
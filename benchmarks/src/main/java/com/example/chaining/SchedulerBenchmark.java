@@ -0,0 +1,70 @@
+package com.example.chaining;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full agent calls and the four-stage game graph against the fake client. With
+ * zero latency this is pure Java-side overhead: encoding, decoding, executor
+ * hand-offs, rate-limiter reservations and scheduler bookkeeping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SchedulerBenchmark {
+
+    @Param({"0", "1000"})
+    public long latencyMicros;
+
+    @Param({"4096"})
+    public int responseChars;
+
+    private ExecutorService executor;
+    private GamePipeline.PipelineAgents agents;
+    private String prompt;
+
+    @Setup
+    public void setup() {
+        // The fake client never throttles; keep the shared limiter out of the measurement
+        ModelRateLimiter.configureDefaults(1e9, 1e12);
+        executor = AgentExecutors.create("bounded", 64);
+        AgentContext context = new AgentContext(new FakeBedrockRuntimeClient(latencyMicros, responseChars), null,
+            executor, false, BackoffPolicy.none(), null);
+        agents = GamePipeline.createAgents(context, null);
+        prompt = "Create a detailed architecture and rulebook for: " + Payloads.text(256);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public String singleAgentCall() throws Exception {
+        return agents.architect.runAsync(prompt).get();
+    }
+
+    @Benchmark
+    public Map<String, String> gamePipeline() throws Exception {
+        return GamePipeline.buildGameGraph("Create a simple Tic-Tac-Toe (X&Os) game in Python", agents)
+            .run(false, new StageGraph.StageListener() { })
+            .await();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Process-wide resources shared by every BedrockAgent: the Bedrock clients, the
+ * executor that blocking calls and response parsing run on, the retry policy,
+ * the optional response cache and the metrics every call is recorded into.
+ */
+class AgentContext {
+    public final BedrockRuntimeClient client;
+    public final BedrockRuntimeAsyncClient asyncClient;
+    public final Executor executor;
+    public final boolean nonBlocking;
+    public final BackoffPolicy backoffPolicy;
+    public final ResponseCache cache;
+    public final PipelineMetrics metrics;
+
+    /**
+     * @param nonBlocking route whole-response calls through the async client instead of
+     *                    blocking an executor thread on the sync client
+     * @param cache       response cache consulted before every call; null to disable
+     */
+    AgentContext(BedrockRuntimeClient client, BedrockRuntimeAsyncClient asyncClient,
+                 Executor executor, boolean nonBlocking, BackoffPolicy backoffPolicy, ResponseCache cache) {
+        this(client, asyncClient, executor, nonBlocking, backoffPolicy, cache, new PipelineMetrics());
+    }
+
+    AgentContext(BedrockRuntimeClient client, BedrockRuntimeAsyncClient asyncClient, Executor executor,
+                 boolean nonBlocking, BackoffPolicy backoffPolicy, ResponseCache cache, PipelineMetrics metrics) {
+        if (nonBlocking && asyncClient == null) {
+            throw new IllegalArgumentException("Non-blocking mode requires a BedrockRuntimeAsyncClient");
+        }
+        this.client = client;
+        this.asyncClient = asyncClient;
+        this.executor = executor;
+        this.nonBlocking = nonBlocking;
+        this.backoffPolicy = backoffPolicy;
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+}
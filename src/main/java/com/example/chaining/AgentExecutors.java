@@ -0,0 +1,101 @@
+package com.example.chaining;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking Bedrock calls.
+ *
+ * Model calls spend nearly all their time waiting on the network, so running
+ * them on ForkJoinPool.commonPool() (sized to the core count) both caps the
+ * number of calls in flight and starves every other async task in the JVM.
+ * These executors are sized for I/O instead: one virtual thread per call on
+ * Java 21+, or a bounded pool of platform threads on Java 17.
+ */
+final class AgentExecutors {
+    private static volatile ExecutorService shared;
+
+    private AgentExecutors() {
+    }
+
+    /**
+     * @param mode       "virtual", "bounded" or "auto" (virtual when the runtime supports it)
+     * @param maxThreads size of the bounded pool; ignored for virtual threads
+     */
+    static ExecutorService create(String mode, int maxThreads) {
+        switch (mode.toLowerCase()) {
+            case "virtual": {
+                ExecutorService virtual = virtualThreadExecutor();
+                if (virtual == null) {
+                    throw new IllegalStateException("Virtual threads require Java 21+, running on "
+                        + Runtime.version().feature());
+                }
+                return virtual;
+            }
+            case "bounded":
+                return boundedExecutor(maxThreads);
+            case "auto": {
+                ExecutorService virtual = virtualThreadExecutor();
+                return virtual != null ? virtual : boundedExecutor(maxThreads);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+    }
+
+    /**
+     * Process-wide default for agents constructed without an explicit executor.
+     */
+    static ExecutorService shared() {
+        if (shared == null) {
+            synchronized (AgentExecutors.class) {
+                if (shared == null) {
+                    shared = create("auto", 256);
+                }
+            }
+        }
+        return shared;
+    }
+
+    static String describe(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor pool) {
+            return "bounded pool (" + pool.getMaximumPoolSize() + " threads)";
+        }
+        return "virtual threads";
+    }
+
+    private static ExecutorService boundedExecutor(int maxThreads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("bedrock-agent-"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        // Looked up reflectively so the project still compiles and runs on Java 17
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
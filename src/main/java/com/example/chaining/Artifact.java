@@ -0,0 +1,140 @@
+package com.example.chaining;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * A stage output held as immutable UTF-8 bytes, on the heap or in a memory-mapped
+ * file (see ArtifactStore).
+ *
+ * Prompts reference artifacts, and slices of them, instead of copying their text,
+ * and the codecs read them straight into request bodies. {@link #text()} decodes
+ * the content on every call and keeps nothing, so once an artifact has spilled
+ * no copy of its content is left on the heap; callers that need the String more
+ * than once hold on to it themselves.
+ */
+final class Artifact {
+    static final Artifact EMPTY = new Artifact(new byte[0], 0);
+
+    // Null for a stored artifact; a slice reads through its root, so it follows the root into a mapped file
+    private final Artifact root;
+    private final int offset;
+    private final int size;
+    // Position 0 and limit at size; never read through directly, only through duplicates
+    private volatile ByteBuffer content;
+    private volatile boolean mapped;
+    private int length = -1;
+
+    /**
+     * @param bytes holds the content in its first size bytes; not copied, so it must not change afterwards
+     */
+    Artifact(byte[] bytes, int size) {
+        this.root = null;
+        this.offset = 0;
+        this.size = size;
+        this.content = ByteBuffer.wrap(bytes, 0, size).slice();
+    }
+
+    private Artifact(Artifact root, int offset, int size) {
+        this.root = root;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /**
+     * Length in UTF-8 bytes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Length in UTF-16 chars, as String.length() of the text, counted from the bytes.
+     */
+    int length() {
+        if (length < 0) {
+            ByteBuffer bytes = bytes();
+            int chars = 0;
+            for (int i = 0; i < size; i++) {
+                int b = bytes.get(i) & 0xff;
+                if ((b & 0xc0) != 0x80) {
+                    // A four-byte sequence decodes to a surrogate pair
+                    chars += (b & 0xf8) == 0xf0 ? 2 : 1;
+                }
+            }
+            length = chars;
+        }
+        return length;
+    }
+
+    boolean isMapped() {
+        return root != null ? root.mapped : mapped;
+    }
+
+    /**
+     * A read-only view of the content with its own position.
+     */
+    ByteBuffer bytes() {
+        if (root != null) {
+            return root.content.asReadOnlyBuffer().slice(offset, size);
+        }
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * The content decoded afresh; not kept, see the class comment.
+     */
+    String text() {
+        return StandardCharsets.UTF_8.decode(bytes()).toString();
+    }
+
+    /**
+     * The given byte range, sharing this artifact's storage.
+     */
+    Artifact slice(int offset, int length) {
+        if (offset == 0 && length == size) {
+            return this;
+        }
+        return new Artifact(root != null ? root : this, this.offset + offset, length);
+    }
+
+    Reader reader() {
+        ByteBuffer source = bytes();
+        return new InputStreamReader(new InputStream() {
+            @Override
+            public int read() {
+                return source.hasRemaining() ? source.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, source.remaining());
+                source.get(buffer, offset, count);
+                return count;
+            }
+        }, StandardCharsets.UTF_8);
+    }
+
+    void digest(MessageDigest digest) {
+        digest.update(bytes());
+    }
+
+    /**
+     * Switches a stored artifact to a mapped copy of its content, releasing the heap
+     * array once readers holding views of it are done. Called by ArtifactStore.
+     */
+    void moveTo(ByteBuffer mappedContent) {
+        if (root != null || mappedContent.limit() != size) {
+            throw new IllegalArgumentException("Not a stored artifact of " + mappedContent.limit() + " bytes");
+        }
+        content = mappedContent;
+        mapped = true;
+    }
+}
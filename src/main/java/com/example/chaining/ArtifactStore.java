@@ -0,0 +1,277 @@
+package com.example.chaining;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns completed stage outputs into Artifacts, shared by every pipeline in the
+ * process.
+ *
+ * An output is UTF-8 encoded as its chunks arrive (see {@link Encoder}) and the
+ * artifact wraps the encoded array without copying it. Outputs above the spill
+ * threshold are then copied, on a background thread rather than the thread that
+ * completed the response, into a memory-mapped temporary file whose name is
+ * deleted as soon as it is mapped; the artifact switches to the mapping and the
+ * heap array is released. The content then lives in the page cache, the kernel
+ * can write it out under memory pressure, and the mapping (and with it the disk
+ * space) is released when the artifact is garbage collected. If a file cannot be
+ * created the output stays on the heap.
+ */
+class ArtifactStore {
+    /**
+     * Roughly the text of a response that runs to BedrockAgent's 4000-token limit:
+     * such outputs spill, while short ones stay on the heap, where mapping them
+     * would cost a file and a page-rounded mapping each for little saving.
+     */
+    static final long DEFAULT_SPILL_THRESHOLD = 16 * 1024;
+
+    private static volatile ArtifactStore shared = new ArtifactStore(DEFAULT_SPILL_THRESHOLD, null);
+    private static ExecutorService spiller;
+
+    private final long spillThreshold;
+    private final Path spillDirectory;
+    private final AtomicBoolean spillFailed = new AtomicBoolean();
+
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder spilledBytes = new LongAdder();
+    private final LongAdder contextBytes = new LongAdder();
+    private final LongAdder forwardedBytes = new LongAdder();
+
+    /**
+     * UTF-8 encodes text appended in chunks into one growing array, pairing a
+     * surrogate split across two chunks. Unpaired surrogates become '?', as in
+     * String.getBytes, so the bytes always match those of the joined text.
+     * Not thread-safe.
+     */
+    static final class Encoder {
+        private byte[] bytes = new byte[256];
+        private int size;
+        private char pendingHigh;
+
+        void append(String chunk) {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            int i = 0;
+            if (pendingHigh != 0) {
+                ensureCapacity(4);
+                if (Character.isLowSurrogate(chunk.charAt(0))) {
+                    putCodePoint(Character.toCodePoint(pendingHigh, chunk.charAt(0)));
+                    i = 1;
+                } else {
+                    put('?');
+                }
+                pendingHigh = 0;
+            }
+            for (int n = chunk.length(); i < n; i++) {
+                char c = chunk.charAt(i);
+                ensureCapacity(4);
+                if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else if (!Character.isSurrogate(c)) {
+                    putCodePoint(c);
+                } else if (Character.isHighSurrogate(c) && i + 1 < n) {
+                    if (Character.isLowSurrogate(chunk.charAt(i + 1))) {
+                        putCodePoint(Character.toCodePoint(c, chunk.charAt(++i)));
+                    } else {
+                        put('?');
+                    }
+                } else if (Character.isHighSurrogate(c)) {
+                    pendingHigh = c;
+                } else {
+                    put('?');
+                }
+            }
+        }
+
+        /**
+         * Encoded length so far.
+         */
+        int size() {
+            return size + (pendingHigh != 0 ? 1 : 0);
+        }
+
+        private void ensureCapacity(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+
+        private void put(char ascii) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) ascii;
+        }
+
+        private void putCodePoint(int codePoint) {
+            if (codePoint < 0x800) {
+                bytes[size++] = (byte) (0xc0 | codePoint >> 6);
+            } else if (codePoint < 0x10000) {
+                bytes[size++] = (byte) (0xe0 | codePoint >> 12);
+                bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            } else {
+                bytes[size++] = (byte) (0xf0 | codePoint >> 18);
+                bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            }
+            bytes[size++] = (byte) (0x80 | codePoint & 0x3f);
+        }
+
+        /**
+         * The encoded text; the encoder must not be used afterwards.
+         */
+        Artifact finish() {
+            if (pendingHigh != 0) {
+                put('?');
+                pendingHigh = 0;
+            }
+            if (size == 0) {
+                return Artifact.EMPTY;
+            }
+            return new Artifact(bytes, size);
+        }
+    }
+
+    /**
+     * @param spillDirectory where mapped files are created; null for the system temp directory
+     */
+    ArtifactStore(long spillThreshold, Path spillDirectory) {
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    static ArtifactStore shared() {
+        return shared;
+    }
+
+    /**
+     * Replaces the shared store; artifacts already created are unaffected.
+     */
+    static void configure(long spillThreshold, Path spillDirectory) throws IOException {
+        if (spillDirectory != null) {
+            Files.createDirectories(spillDirectory);
+        }
+        shared = new ArtifactStore(spillThreshold, spillDirectory);
+    }
+
+    Artifact store(String text) {
+        Encoder encoder = new Encoder();
+        encoder.append(text);
+        return store(encoder);
+    }
+
+    /**
+     * Stores the encoder's text, scheduling the spill if it is over the threshold.
+     */
+    Artifact store(Encoder encoder) {
+        Artifact artifact = encoder.finish();
+        if (artifact.size() == 0) {
+            return artifact;
+        }
+        stored.increment();
+        storedBytes.add(artifact.size());
+        if (artifact.size() > spillThreshold) {
+            spiller().execute(() -> spill(artifact));
+        }
+        return artifact;
+    }
+
+    /**
+     * Counts upstream output offered to a prompt and the part of it that compaction forwarded.
+     */
+    void recordCompaction(long upstreamBytes, long forwarded) {
+        contextBytes.add(upstreamBytes);
+        forwardedBytes.add(forwarded);
+    }
+
+    void printSummary() {
+        System.out.println("\nARTIFACTS");
+        System.out.println("-".repeat(50));
+        System.out.printf("Stage outputs: %d stored, %.1f MB (%d spilled to mapped files, %.1f MB; threshold %d KB)%n",
+            stored.sum(), storedBytes.sum() / 1048576.0, spilled.sum(), spilledBytes.sum() / 1048576.0,
+            spillThreshold / 1024);
+        if (contextBytes.sum() > 0) {
+            System.out.printf("Compaction: %.1f MB of %.1f MB upstream context forwarded (%.0f%%)%n",
+                forwardedBytes.sum() / 1048576.0, contextBytes.sum() / 1048576.0,
+                100.0 * forwardedBytes.sum() / contextBytes.sum());
+        }
+        System.out.println("=".repeat(50));
+    }
+
+    private static synchronized ExecutorService spiller() {
+        if (spiller == null) {
+            spiller = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "artifact-spill");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return spiller;
+    }
+
+    private void spill(Artifact artifact) {
+        Path file = null;
+        try {
+            file = spillDirectory != null ? Files.createTempFile(spillDirectory, "artifact-", ".txt")
+                : Files.createTempFile("artifact-", ".txt");
+            ByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping outlives the channel
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, artifact.size());
+            }
+            mapped.put(artifact.bytes());
+            mapped.flip();
+            artifact.moveTo(mapped);
+            spilled.increment();
+            spilledBytes.add(artifact.size());
+        } catch (IOException e) {
+            if (spillFailed.compareAndSet(false, true)) {
+                System.err.printf("Could not spill stage output to a mapped file, keeping it on the heap: %s%n",
+                    e.getMessage());
+            }
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Some platforms refuse to delete a mapped file
+                    file.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Encoded length, matching String.getBytes: an unpaired surrogate becomes one replacement byte.
+     */
+    static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.bedrockruntime.model.InternalServerException;
+import software.amazon.awssdk.services.bedrockruntime.model.ModelNotReadyException;
+import software.amazon.awssdk.services.bedrockruntime.model.ModelTimeoutException;
+import software.amazon.awssdk.services.bedrockruntime.model.ServiceQuotaExceededException;
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry schedule for model calls: exponential backoff with full jitter, bounded
+ * by both an attempt count and an overall deadline measured from the first attempt.
+ */
+class BackoffPolicy {
+    public final int maxAttempts;
+    public final Duration baseDelay;
+    public final Duration maxDelay;
+    public final Duration deadline;
+
+    BackoffPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, Duration deadline) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.deadline = deadline;
+    }
+
+    static BackoffPolicy defaults() {
+        return new BackoffPolicy(6, Duration.ofMillis(500), Duration.ofSeconds(20), Duration.ofMinutes(3));
+    }
+
+    static BackoffPolicy none() {
+        return new BackoffPolicy(1, Duration.ZERO, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * Delay before the given retry (1 for the first retry). Full jitter spreads
+     * retries from concurrent callers that were throttled at the same moment.
+     */
+    Duration delayBefore(int retry) {
+        long cap = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(retry - 1, 20));
+        return Duration.ofMillis(cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    /**
+     * Rate throttling, which clears as the rate drops. An exceeded service quota is
+     * not: backing off cannot raise the quota, so it fails the call at once.
+     */
+    static boolean isThrottling(Throwable error) {
+        Throwable cause = rootCause(error);
+        if (cause instanceof ServiceQuotaExceededException) {
+            return false;
+        }
+        return cause instanceof ThrottlingException
+            || cause instanceof SdkServiceException && ((SdkServiceException) cause).statusCode() == 429;
+    }
+
+    static boolean isRetryable(Throwable error) {
+        Throwable cause = rootCause(error);
+        if (cause instanceof ServiceQuotaExceededException) {
+            return false;
+        }
+        if (isThrottling(cause)
+            || cause instanceof ModelTimeoutException
+            || cause instanceof ModelNotReadyException
+            || cause instanceof InternalServerException) {
+            return true;
+        }
+        if (cause instanceof SdkServiceException) {
+            return ((SdkServiceException) cause).statusCode() >= 500;
+        }
+        // Connection resets, timeouts and other transport failures, but not e.g. missing credentials
+        return cause instanceof SdkClientException
+            && (cause.getCause() instanceof IOException || cause instanceof ApiCallAttemptTimeoutException);
+    }
+
+    /**
+     * The underlying failure beneath CompletionException and plain RuntimeException wrappers.
+     */
+    static Throwable rootCause(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof RuntimeException
+                && cause.getClass() == RuntimeException.class) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many game pipelines from a JSONL file in one JVM.
+ *
+ * Each input line is a JSON object with a "request" (or "project_request") field and
+ * an optional "id". Lines are read lazily and at most maxInFlight pipelines run at
+ * once, so memory stays flat however large the input file is. Every pipeline shares
+ * the same agents and Bedrock clients, and each result is appended to the output
+ * file as soon as that pipeline finishes.
+ *
+ * With a CheckpointLog, each pipeline's stages are checkpointed under a run key
+ * made from its id and request, so re-running the same input file with resume
+ * set only pays for the stages that had not completed.
+ */
+class BatchRunner {
+    private static final int PROGRESS_INTERVAL = 10;
+
+    private final GamePipeline.PipelineAgents agents;
+    private final boolean streaming;
+    private final int maxInFlight;
+    private final CheckpointLog checkpointLog;
+    private final boolean resume;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    public BatchRunner(GamePipeline.PipelineAgents agents, boolean streaming, int maxInFlight) {
+        this(agents, streaming, maxInFlight, null, false);
+    }
+
+    /**
+     * @param checkpointLog where completed stages are recorded; null to run without checkpoints
+     * @param resume        reuse checkpointed stages instead of calling their models again
+     */
+    public BatchRunner(GamePipeline.PipelineAgents agents, boolean streaming, int maxInFlight,
+                       CheckpointLog checkpointLog, boolean resume) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Batch concurrency must be at least 1");
+        }
+        this.agents = agents;
+        this.streaming = streaming;
+        this.maxInFlight = maxInFlight;
+        this.checkpointLog = checkpointLog;
+        this.resume = resume;
+    }
+
+    public void run(Path input, Path output) throws Exception {
+        System.out.printf("Batch mode: %s -> %s (max %d pipelines in flight)%n%n", input, output, maxInFlight);
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Instant batchStart = Instant.now();
+        AtomicInteger submitted = new AtomicInteger();
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+
+            readJobs(reader, (id, projectRequest) -> {
+                // Back-pressure: don't read further ahead than we can run
+                inFlight.acquire();
+                submitted.incrementAndGet();
+                submit(id, projectRequest, writer, inFlight, batchStart);
+            });
+
+            // Wait for the tail of the batch to drain
+            inFlight.acquire(maxInFlight);
+        }
+
+        Duration elapsed = Duration.between(batchStart, Instant.now());
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("BATCH COMPLETE");
+        System.out.println("=".repeat(50));
+        System.out.printf("Pipelines:   %d (%d succeeded, %d failed)%n", submitted.get(), succeeded.get(), failed.get());
+        System.out.printf("Total Time:  %.2f seconds%n", elapsed.toMillis() / 1000.0);
+        System.out.printf("Throughput:  %.2f pipelines/min%n", throughput(submitted.get(), elapsed));
+        System.out.printf("Results:     %s%n", output);
+        System.out.println("=".repeat(50));
+    }
+
+    /**
+     * Receives each job of a batch input file.
+     */
+    interface JobConsumer {
+        void accept(String id, String projectRequest) throws Exception;
+    }
+
+    /**
+     * Reads batch input lines one at a time, passing each job to the consumer before
+     * reading the next. Lines that are not jobs are reported and skipped; a job
+     * without an "id" is named by its line number.
+     */
+    static void readJobs(BufferedReader reader, JobConsumer consumer) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            JsonNode job;
+            try {
+                job = objectMapper.readTree(line);
+            } catch (IOException e) {
+                System.err.printf("Skipping line %d: invalid JSON (%s)%n", lineNumber, e.getMessage());
+                continue;
+            }
+            String id = job.hasNonNull("id") ? job.get("id").asText() : String.valueOf(lineNumber);
+            JsonNode requestNode = job.hasNonNull("request") ? job.get("request") : job.get("project_request");
+            if (requestNode == null || requestNode.asText().isBlank()) {
+                System.err.printf("Skipping line %d: no \"request\" field%n", lineNumber);
+                continue;
+            }
+            consumer.accept(id, requestNode.asText());
+        }
+    }
+
+    private void submit(String id, String projectRequest, BufferedWriter writer, Semaphore inFlight, Instant batchStart) {
+        Instant start = Instant.now();
+        StageGraph.Execution execution;
+        try {
+            CheckpointLog.Run checkpoints = checkpointLog == null ? null
+                : checkpointLog.run(CheckpointLog.runKey(id, projectRequest), resume);
+            execution = GamePipeline.buildGameGraph(projectRequest, agents)
+                .run(streaming, new StageGraph.StageListener() { }, checkpoints);
+        } catch (RuntimeException e) {
+            writeResult(writer, id, projectRequest, start, null, null, e);
+            inFlight.release();
+            return;
+        }
+
+        execution.result().whenComplete((outputs, failure) -> {
+            try {
+                Exception error = failure == null ? null
+                    : failure.getCause() instanceof Exception ? (Exception) failure.getCause()
+                    : new RuntimeException(failure);
+                writeResult(writer, id, projectRequest, start, execution, outputs, error);
+                // Report before releasing so the last progress line precedes the batch summary
+                reportProgress(completed.incrementAndGet(), batchStart);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void writeResult(BufferedWriter writer, String id, String projectRequest, Instant start,
+                             StageGraph.Execution execution, Map<String, String> outputs, Exception error) {
+        (error == null ? succeeded : failed).incrementAndGet();
+        ObjectNode result = resultJson(objectMapper, id, projectRequest, error == null ? "SUCCESS" : "FAILED",
+            Duration.between(start, Instant.now()), execution, outputs, error);
+
+        try {
+            String line = objectMapper.writeValueAsString(result);
+            synchronized (writer) {
+                writer.write(line);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.printf("Failed to write result for %s: %s%n", id, e.getMessage());
+        }
+    }
+
+    /**
+     * One pipeline's result in the batch output format, also used by the job API.
+     * Only stages that have settled are listed, so a running pipeline can be reported too.
+     *
+     * @param execution may be null if the pipeline never started
+     * @param outputs   may be null unless the pipeline succeeded
+     */
+    static ObjectNode resultJson(ObjectMapper objectMapper, String id, String projectRequest, String status,
+                                 Duration duration, StageGraph.Execution execution, Map<String, String> outputs,
+                                 Exception error) {
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("id", id);
+        result.put("request", projectRequest);
+        result.put("status", status);
+        result.put("duration_ms", duration.toMillis());
+        if (error != null) {
+            result.put("error", error.getMessage());
+        }
+
+        if (execution != null) {
+            result.put("trace_id", execution.traceId());
+            ArrayNode stages = result.putArray("stages");
+            for (StageGraph.NodeTiming timing : execution.timings()) {
+                ObjectNode stage = stages.addObject();
+                stage.put("id", timing.id);
+                stage.put("state", timing.state.name());
+                stage.put("duration_ms", timing.duration.toMillis());
+                if (timing.timeToFirstToken != null) {
+                    stage.put("first_token_ms", timing.timeToFirstToken.toMillis());
+                }
+                if (timing.span != null) {
+                    stage.put("span_id", timing.span.spanId);
+                    stage.put("attempts", timing.span.attempts);
+                    if (timing.span.inputTokens >= 0) {
+                        stage.put("input_tokens", timing.span.inputTokens);
+                    }
+                    if (timing.span.outputTokens >= 0) {
+                        stage.put("output_tokens", timing.span.outputTokens);
+                    }
+                }
+            }
+        }
+        if (outputs != null) {
+            ObjectNode outputNode = result.putObject("outputs");
+            outputs.forEach(outputNode::put);
+        }
+        return result;
+    }
+
+    private void reportProgress(int completed, Instant batchStart) {
+        if (completed % PROGRESS_INTERVAL == 0) {
+            Duration elapsed = Duration.between(batchStart, Instant.now());
+            System.out.printf("Progress: %d pipelines complete (%d failed), %.2f pipelines/min%n",
+                completed, failed.get(), throughput(completed, elapsed));
+        }
+    }
+
+    private static double throughput(int pipelines, Duration elapsed) {
+        double minutes = Math.max(elapsed.toMillis(), 1) / 60000.0;
+        return pipelines / minutes;
+    }
+}
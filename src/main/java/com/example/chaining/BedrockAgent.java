@@ -0,0 +1,385 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+class BedrockAgent {
+    private static final int MAX_TOKENS = 4000;
+    private static final double TEMPERATURE = 0.7;
+    private static final String INFERENCE_PARAMS = "max_tokens=" + MAX_TOKENS + ";temperature=" + TEMPERATURE;
+    private static final int ERROR_EXCERPT_BYTES = 500;
+
+    private final BedrockRuntimeClient client;
+    private final BedrockRuntimeAsyncClient asyncClient;
+    final Executor executor;
+    private final boolean nonBlocking;
+    private final BackoffPolicy backoffPolicy;
+    private final ModelRateLimiter rateLimiter;
+    private final ResponseCache cache;
+    private final String modelId;
+    final String systemPrompt;
+    private final ModelCodec codec;
+    final PipelineMetrics metrics;
+
+    public BedrockAgent(BedrockRuntimeClient client, String modelId, String systemPrompt) {
+        this(new AgentContext(client, null, AgentExecutors.shared(), false, BackoffPolicy.defaults(), null),
+            modelId, systemPrompt);
+    }
+
+    public BedrockAgent(AgentContext context, String modelId, String systemPrompt) {
+        this.client = context.client;
+        this.asyncClient = context.asyncClient;
+        this.executor = context.executor;
+        this.nonBlocking = context.nonBlocking;
+        this.backoffPolicy = context.backoffPolicy;
+        this.rateLimiter = ModelRateLimiter.forModel(modelId);
+        this.cache = context.cache;
+        this.modelId = modelId;
+        this.systemPrompt = systemPrompt;
+        this.codec = ModelCodec.forModel(modelId);
+        this.metrics = context.metrics;
+    }
+
+    public String getModelId() {
+        return modelId;
+    }
+
+    public CompletableFuture<String> runAsync(String userInput) {
+        return runAsync(Prompt.of(userInput), Span.root("invoke", modelId));
+    }
+
+    /**
+     * @param span filled in with this call's measurements and recorded once the call settles
+     */
+    public CompletableFuture<String> runAsync(Prompt userInput, Span span) {
+        CompletableFuture<String> response;
+        if (cache == null) {
+            response = invoke(userInput, span);
+        } else {
+            span.cache = "hit";
+            response = cache.getOrLoad(modelId, cacheKey(userInput), () -> {
+                span.cache = "miss";
+                return invoke(userInput, span);
+            });
+        }
+        // Callers only see the result once the span has been recorded
+        return response.whenComplete((text, error) -> finish(span, error));
+    }
+
+    /**
+     * One model call with retries, bypassing the cache. The span is filled in but
+     * not recorded; callers finish it.
+     */
+    CompletableFuture<String> invoke(Prompt userInput, Span span) {
+        int estimatedTokens = ModelRateLimiter.estimateTokens((int) userInput.length() + systemPrompt.length(),
+            MAX_TOKENS);
+        long deadline = System.nanoTime() + backoffPolicy.deadline.toNanos();
+        return attempt(userInput, span, estimatedTokens, 1, deadline);
+    }
+
+    private CompletableFuture<String> attempt(Prompt userInput, Span span, int estimatedTokens, int attempt,
+                                              long deadline) {
+        Duration wait = rateLimiter.reserve(estimatedTokens);
+        span.attempts = attempt;
+        span.limiterWaitNanos += wait.toNanos();
+        return after(wait, () -> invokeOnce(userInput, span))
+            .handle((text, error) -> {
+                if (error == null) {
+                    rateLimiter.onSuccess();
+                    return CompletableFuture.completedFuture(text);
+                }
+                if (BackoffPolicy.isThrottling(error)) {
+                    rateLimiter.onThrottle();
+                    span.throttles++;
+                }
+                Duration backoff = backoffPolicy.delayBefore(attempt);
+                if (!span.isCancelled() && attempt < backoffPolicy.maxAttempts && BackoffPolicy.isRetryable(error)
+                    && System.nanoTime() + backoff.toNanos() < deadline) {
+                    span.backoffNanos += backoff.toNanos();
+                    return after(backoff, () -> attempt(userInput, span, estimatedTokens, attempt + 1, deadline));
+                }
+                return CompletableFuture.<String>failedFuture(finalError(error, attempt));
+            })
+            .thenCompose(result -> result);
+    }
+
+    private CompletableFuture<String> invokeOnce(Prompt userInput, Span span) {
+        if (span.isCancelled()) {
+            return CompletableFuture.failedFuture(new CancellationException("Superseded by a hedged call"));
+        }
+        // A blocked sync call cannot be aborted, so calls that may be cancelled use the async client
+        if (nonBlocking || span.abortable && asyncClient != null) {
+            return invokeNonBlocking(userInput, span);
+        }
+        long submitted = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            span.queueWaitNanos += System.nanoTime() - submitted;
+            try {
+                InvokeModelRequest request = InvokeModelRequest.builder()
+                    .modelId(modelId)
+                    .contentType("application/json")
+                    .body(encodeRequest(userInput, span))
+                    .overrideConfiguration(c -> c.putExecutionAttribute(SpanInterceptor.SPAN, span))
+                    .build();
+
+                InvokeModelResponse response = client.invokeModel(request);
+                return decodeResponse(response.body().asByteArrayUnsafe(), span);
+
+            } catch (Exception e) {
+                throw new RuntimeException("Bedrock API error: " + e.getMessage(), e);
+            }
+        }, executor);
+    }
+
+    private CompletableFuture<String> invokeNonBlocking(Prompt userInput, Span span) {
+        InvokeModelRequest request;
+        try {
+            request = InvokeModelRequest.builder()
+                .modelId(modelId)
+                .contentType("application/json")
+                .body(encodeRequest(userInput, span))
+                .overrideConfiguration(c -> c.putExecutionAttribute(SpanInterceptor.SPAN, span))
+                .build();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Bedrock API error: " + e.getMessage(), e));
+        }
+
+        // No thread waits on the network; parsing is handed back to the agent executor
+        // so it never runs on the SDK's completion threads
+        long[] arrived = new long[1];
+        CompletableFuture<InvokeModelResponse> call = asyncClient.invokeModel(request);
+        span.onCancel(() -> call.cancel(true));
+        return call
+            .whenComplete((response, error) -> arrived[0] = System.nanoTime())
+            .handleAsync((response, error) -> {
+                span.queueWaitNanos += System.nanoTime() - arrived[0];
+                if (error != null) {
+                    Throwable cause = unwrap(error);
+                    throw new RuntimeException("Bedrock API error: " + cause.getMessage(), cause);
+                }
+                try {
+                    return decodeResponse(response.body().asByteArrayUnsafe(), span);
+                } catch (Exception e) {
+                    throw new RuntimeException("Bedrock API error: " + e.getMessage(), e);
+                }
+            }, executor);
+    }
+
+    public ChunkPublisher streamAsync(String userInput) {
+        return streamAsync(Prompt.of(userInput), Span.root("invoke", modelId));
+    }
+
+    /**
+     * Streams the model output through InvokeModelWithResponseStream. The returned
+     * publisher emits text chunks as they arrive so downstream stages can start
+     * assembling their prompts before this agent has finished generating.
+     *
+     * @param span filled in with this call's measurements and recorded before the publisher completes
+     */
+    public ChunkPublisher streamAsync(Prompt userInput, Span span) {
+        if (asyncClient == null) {
+            throw new IllegalStateException("Streaming requires a BedrockRuntimeAsyncClient");
+        }
+
+        if (cache == null) {
+            return stream(userInput, span);
+        }
+        // A cache hit or a joined in-flight call arrives whole; only the caller that
+        // actually starts the call gets the incremental stream
+        span.cache = "hit";
+        ChunkPublisher[] started = new ChunkPublisher[1];
+        CompletableFuture<String> response = cache.getOrLoad(modelId, cacheKey(userInput), () -> {
+            span.cache = "miss";
+            started[0] = stream(userInput, span);
+            return started[0].text();
+        });
+        return started[0] != null ? started[0]
+            : ChunkPublisher.from(response.whenComplete((text, error) -> finish(span, error)));
+    }
+
+    /**
+     * One streamed model call with retries, bypassing the cache. The span is
+     * recorded before the returned publisher completes or fails.
+     */
+    ChunkPublisher stream(Prompt userInput, Span span) {
+        ChunkPublisher publisher = new ChunkPublisher();
+        int estimatedTokens = ModelRateLimiter.estimateTokens((int) userInput.length() + systemPrompt.length(),
+            MAX_TOKENS);
+        long deadline = System.nanoTime() + backoffPolicy.deadline.toNanos();
+        streamAttempt(userInput, publisher, span, estimatedTokens, 1, deadline);
+        return publisher;
+    }
+
+    private void streamAttempt(Prompt userInput, ChunkPublisher publisher, Span span, int estimatedTokens,
+                               int attempt, long deadline) {
+        Duration wait = rateLimiter.reserve(estimatedTokens);
+        span.attempts = attempt;
+        span.limiterWaitNanos += wait.toNanos();
+        after(wait, () -> streamOnce(userInput, publisher, span))
+            .whenComplete((ignored, error) -> {
+                if (error == null) {
+                    rateLimiter.onSuccess();
+                    return;
+                }
+                if (BackoffPolicy.isThrottling(error)) {
+                    rateLimiter.onThrottle();
+                    span.throttles++;
+                }
+                // Once chunks have reached subscribers the stream cannot be replayed from a retry
+                Duration backoff = backoffPolicy.delayBefore(attempt);
+                if (!publisher.hasChunks() && !span.isCancelled() && attempt < backoffPolicy.maxAttempts
+                    && BackoffPolicy.isRetryable(error)
+                    && System.nanoTime() + backoff.toNanos() < deadline) {
+                    span.backoffNanos += backoff.toNanos();
+                    after(backoff, () -> {
+                        streamAttempt(userInput, publisher, span, estimatedTokens, attempt + 1, deadline);
+                        return CompletableFuture.completedFuture(null);
+                    });
+                } else {
+                    endStream(publisher, span, finalError(error, attempt));
+                }
+            });
+    }
+
+    private CompletableFuture<Void> streamOnce(Prompt userInput, ChunkPublisher publisher, Span span) {
+        if (span.isCancelled()) {
+            return CompletableFuture.failedFuture(new CancellationException("Superseded by a hedged call"));
+        }
+        try {
+            InvokeModelWithResponseStreamRequest request = InvokeModelWithResponseStreamRequest.builder()
+                .modelId(modelId)
+                .contentType("application/json")
+                .body(encodeRequest(userInput, span))
+                .overrideConfiguration(c -> c.putExecutionAttribute(SpanInterceptor.SPAN, span))
+                .build();
+
+            InvokeModelWithResponseStreamResponseHandler handler = InvokeModelWithResponseStreamResponseHandler.builder()
+                .subscriber(InvokeModelWithResponseStreamResponseHandler.Visitor.builder()
+                    .onChunk(chunk -> {
+                        try {
+                            byte[] bytes = chunk.bytes().asByteArrayUnsafe();
+                            long start = System.nanoTime();
+                            ModelCodec.Decoded decoded = codec.decodeChunk(bytes);
+                            span.decodeNanos += System.nanoTime() - start;
+                            span.responseBytes += bytes.length;
+                            recordUsage(span, decoded);
+                            if (!decoded.text.isEmpty()) {
+                                span.firstToken();
+                            }
+                            publisher.emit(decoded.text);
+                        } catch (Exception e) {
+                            endStream(publisher, span, new RuntimeException("Bedrock API error: " + e.getMessage(), e));
+                        }
+                    })
+                    .build())
+                .onComplete(() -> endStream(publisher, span, null))
+                .build();
+
+            // Stream errors also surface through the returned future, which drives retries
+            CompletableFuture<Void> call = asyncClient.invokeModelWithResponseStream(request, handler);
+            span.onCancel(() -> call.cancel(true));
+            return call;
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Records the span, then settles the publisher, so anything waiting on the
+     * stream's text sees the finished measurements.
+     */
+    private void endStream(ChunkPublisher publisher, Span span, Throwable error) {
+        finish(span, error);
+        if (error == null) {
+            publisher.complete();
+        } else {
+            publisher.fail(error);
+        }
+    }
+
+    void finish(Span span, Throwable error) {
+        // A stream that fails mid-decode also reports through its SDK future, and a
+        // hedge loser is finished by whichever call beat it; record each span once
+        if (!span.finish(error)) {
+            return;
+        }
+        if (span.calledModel() && !span.endedBeforeStage) {
+            ModelHealth.forModel(span.modelId).record(span);
+        }
+        metrics.record(span);
+    }
+
+    private String cacheKey(Prompt userInput) {
+        return ResponseCache.key(modelId, systemPrompt, userInput, INFERENCE_PARAMS);
+    }
+
+    private <T> CompletableFuture<T> after(Duration delay, Supplier<CompletableFuture<T>> action) {
+        if (delay.isZero()) {
+            return action.get();
+        }
+        Executor delayed = CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS, executor);
+        return CompletableFuture.runAsync(() -> { }, delayed).thenCompose(ignored -> action.get());
+    }
+
+    private static RuntimeException finalError(Throwable error, int attempts) {
+        Throwable cause = unwrap(error);
+        // Unwrap our own per-attempt wrapper so the message names the underlying failure
+        if (cause.getClass() == RuntimeException.class && cause.getCause() != null
+            && cause.getMessage() != null && cause.getMessage().startsWith("Bedrock API error: ")) {
+            cause = cause.getCause();
+        }
+        String prefix = attempts > 1 ? "Bedrock API error after " + attempts + " attempts: " : "Bedrock API error: ";
+        return new RuntimeException(prefix + cause.getMessage(), cause);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private SdkBytes encodeRequest(Prompt userInput, Span span) throws IOException {
+        long start = System.nanoTime();
+        byte[] body = codec.encodeRequest(systemPrompt, userInput, MAX_TOKENS, TEMPERATURE);
+        span.encodeNanos += System.nanoTime() - start;
+        span.requestBytes += body.length;
+        // The codec's buffer is handed to the SDK as-is rather than copied again
+        return SdkBytes.fromByteArrayUnsafe(body);
+    }
+
+    private String decodeResponse(byte[] body, Span span) throws IOException {
+        long start = System.nanoTime();
+        ModelCodec.Decoded decoded = codec.decodeResponse(body);
+        span.decodeNanos += System.nanoTime() - start;
+        span.responseBytes += body.length;
+        recordUsage(span, decoded);
+        if (decoded.text == null) {
+            // Keep the start of the body with the failure rather than printing it
+            String excerpt = new String(body, 0, Math.min(body.length, ERROR_EXCERPT_BYTES), StandardCharsets.UTF_8);
+            throw new RuntimeException("No content in " + modelId + " response: " + excerpt);
+        }
+        return decoded.text;
+    }
+
+    private static void recordUsage(Span span, ModelCodec.Decoded decoded) {
+        if (decoded.inputTokens >= 0) {
+            span.inputTokens = decoded.inputTokens;
+        }
+        if (decoded.outputTokens >= 0) {
+            span.outputTokens = decoded.outputTokens;
+        }
+    }
+}
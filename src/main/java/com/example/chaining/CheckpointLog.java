@@ -0,0 +1,343 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durable record of completed pipeline stages, so a run that fails part-way can
+ * be resumed without paying again for the stages that already succeeded.
+ *
+ * One append-only log holds every run. Each record is one stage of one run,
+ * keyed by run key and stage id, with the stage's output and metadata; a later
+ * record for the same run and stage replaces an earlier one. Records are written
+ * as each stage completes and are in the OS page cache at once, so they survive
+ * the process dying. The fsync that makes them survive a machine failure is
+ * batched: the first record after a sync schedules the next one syncInterval
+ * later, and every record written in between shares it. Stages never wait for it.
+ *
+ * A checkpoint names the upstream outputs it was generated from by digest, and
+ * is only reused when exactly those outputs are reused too. A resumed run
+ * therefore never pairs a stage's output with upstream text it was not built on,
+ * even if an upstream stage was re-run (or its model changed) in between.
+ *
+ * Each record (see RecordLog) is UTF-8 JSON. Only offsets are kept on heap. A
+ * damaged record only loses that stage, which is re-run; a torn record at the
+ * tail is truncated on open.
+ */
+class CheckpointLog implements AutoCloseable {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RecordLog log;
+    private final Duration syncInterval;
+    private final ScheduledExecutorService syncer;
+    private final boolean ownsSyncer;
+    private final Object syncLock = new Object();
+    private final Map<String, Map<String, long[]>> index = new ConcurrentHashMap<>();
+    private CompletableFuture<Void> pendingSync;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder resumedTokens = new LongAdder();
+
+    /**
+     * One completed stage.
+     */
+    static class Checkpoint {
+        public final String stageId;
+        public final String modelId;
+        public final String output;
+        /** Digest of output */
+        public final String digest;
+        /** Digest of each upstream output this one was generated from, by stage id */
+        public final Map<String, String> inputs;
+        public final String traceId;
+        public final long durationMillis;
+        public final int inputTokens;
+        public final int outputTokens;
+        public final long completedEpochMillis;
+
+        Checkpoint(String stageId, String modelId, String output, Map<String, String> inputs, String traceId,
+                   long durationMillis, int inputTokens, int outputTokens, long completedEpochMillis) {
+            this.stageId = stageId;
+            this.modelId = modelId;
+            this.output = output;
+            this.digest = digest(output);
+            this.inputs = Map.copyOf(inputs);
+            this.traceId = traceId;
+            this.durationMillis = durationMillis;
+            this.inputTokens = inputTokens;
+            this.outputTokens = outputTokens;
+            this.completedEpochMillis = completedEpochMillis;
+        }
+    }
+
+    /**
+     * The checkpoints of one pipeline run.
+     */
+    class Run {
+        public final String key;
+        public final boolean resume;
+
+        private Run(String key, boolean resume) {
+            this.key = key;
+            this.resume = resume;
+        }
+
+        /**
+         * The stage's saved checkpoint if resuming and it was generated by the same
+         * model from exactly the given upstream outputs; otherwise null.
+         *
+         * @param inputs digest of each upstream output the stage would now be given
+         */
+        Checkpoint reusable(String stageId, String modelId, Map<String, String> inputs) {
+            if (!resume) {
+                return null;
+            }
+            Map<String, long[]> stages = index.get(key);
+            long[] location = stages == null ? null : stages.get(stageId);
+            if (location == null) {
+                return null;
+            }
+            Checkpoint checkpoint;
+            try {
+                checkpoint = read(location[0], (int) location[1]);
+            } catch (IOException e) {
+                System.err.printf("Checkpoint read failed for %s/%s, re-running the stage: %s%n",
+                    key, stageId, e.getMessage());
+                return null;
+            }
+            if (!checkpoint.modelId.equals(modelId) || !checkpoint.inputs.equals(inputs)) {
+                return null;
+            }
+            resumed.increment();
+            resumedTokens.add(Math.max(0, checkpoint.inputTokens) + Math.max(0, checkpoint.outputTokens));
+            return checkpoint;
+        }
+
+        /**
+         * Appends the checkpoint. Write failures are reported and otherwise ignored:
+         * losing a checkpoint only costs a re-run.
+         *
+         * @return completes once the record has been fsynced
+         */
+        CompletableFuture<Void> record(Checkpoint checkpoint) {
+            try {
+                return append(key, checkpoint);
+            } catch (IOException e) {
+                System.err.printf("Checkpoint write failed for %s/%s: %s%n", key, checkpoint.stageId, e.getMessage());
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+
+    /**
+     * @param syncInterval how long records may wait for the fsync they share
+     */
+    CheckpointLog(Path directory, Duration syncInterval) throws IOException {
+        this(directory, syncInterval, null);
+    }
+
+    /**
+     * @param syncer runs the batched fsyncs; null for a thread of the log's own. A
+     *               shared one is not shut down by close(), so many short-lived logs
+     *               (one per worker job) can use one thread.
+     */
+    CheckpointLog(Path directory, Duration syncInterval, ScheduledExecutorService syncer) throws IOException {
+        Files.createDirectories(directory);
+        this.syncInterval = syncInterval;
+        this.ownsSyncer = syncer == null;
+        this.syncer = syncer != null ? syncer : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.log = RecordLog.open(directory.resolve("checkpoints.log"), "Checkpoint log", 1, this::index);
+    }
+
+    /**
+     * A run key for a pipeline: the caller's id for it plus a digest of the request,
+     * so reusing an id for a different request starts from scratch.
+     */
+    static String runKey(String id, String projectRequest) {
+        return id + "/" + digest(projectRequest);
+    }
+
+    Run run(String key, boolean resume) {
+        return new Run(key, resume);
+    }
+
+    int runCount() {
+        return index.size();
+    }
+
+    static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * As {@link #digest(String)} for the artifact's text, without decoding it.
+     */
+    static String digest(Artifact artifact) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            artifact.digest(digest);
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Syncs pending records first, so the counts include them.
+     */
+    public void printSummary() {
+        sync();
+        System.out.println("\nCHECKPOINTS");
+        System.out.println("-".repeat(50));
+        System.out.printf("%d stages resumed (%d tokens not re-generated), %d written (%.1f KB) in %d fsyncs%n",
+            resumed.sum(), resumedTokens.sum(), written.sum(), bytesWritten.sum() / 1024.0, syncs.sum());
+        System.out.println("=".repeat(50));
+    }
+
+    /**
+     * Syncs anything still pending before closing the log.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsSyncer) {
+            // Not shutdownNow: interrupting a sync in progress would close the channel under it
+            syncer.shutdown();
+            try {
+                syncer.awaitTermination(syncInterval.toMillis() + 5000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // A sync still scheduled on a shared syncer finds nothing pending
+        sync();
+        synchronized (syncLock) {
+            log.close();
+        }
+    }
+
+    private synchronized CompletableFuture<Void> append(String key, Checkpoint checkpoint) throws IOException {
+        ObjectNode json = objectMapper.createObjectNode();
+        json.put("run", key);
+        json.put("stage", checkpoint.stageId);
+        json.put("model", checkpoint.modelId);
+        json.put("digest", checkpoint.digest);
+        ObjectNode inputs = json.putObject("inputs");
+        checkpoint.inputs.forEach(inputs::put);
+        json.put("trace_id", checkpoint.traceId);
+        json.put("duration_ms", checkpoint.durationMillis);
+        json.put("input_tokens", checkpoint.inputTokens);
+        json.put("output_tokens", checkpoint.outputTokens);
+        json.put("completed_epoch_ms", checkpoint.completedEpochMillis);
+        json.put("output", checkpoint.output);
+        byte[] body = objectMapper.writeValueAsBytes(json);
+
+        long offset = log.append(body);
+        index.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+            .put(checkpoint.stageId, new long[] {offset, body.length});
+        written.increment();
+        bytesWritten.add(RecordLog.HEADER_BYTES + body.length);
+
+        if (pendingSync == null) {
+            pendingSync = new CompletableFuture<>();
+            syncer.schedule(this::sync, syncInterval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return pendingSync;
+    }
+
+    private void sync() {
+        CompletableFuture<Void> batch;
+        synchronized (this) {
+            batch = pendingSync;
+            pendingSync = null;
+        }
+        if (batch == null) {
+            return;
+        }
+        // Records appended after the swap are covered too; their own sync is merely redundant
+        // Held so close() cannot close the channel under a sync running on a shared syncer
+        synchronized (syncLock) {
+            try {
+                log.force();
+                syncs.increment();
+                batch.complete(null);
+            } catch (IOException e) {
+                System.err.printf("Checkpoint sync failed: %s%n", e.getMessage());
+                batch.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Checkpoint read(long offset, int length) throws IOException {
+        JsonNode json = objectMapper.readTree(log.read(offset, length));
+        Map<String, String> inputs = new LinkedHashMap<>();
+        json.get("inputs").fields().forEachRemaining(input -> inputs.put(input.getKey(), input.getValue().asText()));
+        Checkpoint checkpoint = new Checkpoint(json.get("stage").asText(), json.get("model").asText(),
+            json.get("output").asText(), inputs, json.get("trace_id").asText(), json.get("duration_ms").asLong(),
+            json.get("input_tokens").asInt(), json.get("output_tokens").asInt(),
+            json.get("completed_epoch_ms").asLong());
+        if (!checkpoint.digest.equals(json.get("digest").asText())) {
+            throw new IOException("digest mismatch");
+        }
+        return checkpoint;
+    }
+
+    private void index(long bodyOffset, byte[] body) throws IOException {
+        String[] runAndStage = runAndStage(body);
+        index.computeIfAbsent(runAndStage[0], k -> new ConcurrentHashMap<>())
+            .put(runAndStage[1], new long[] {bodyOffset, body.length});
+    }
+
+    /**
+     * Reads only the leading "run" and "stage" fields, leaving the output unparsed.
+     */
+    private String[] runAndStage(byte[] body) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            String[] fields = new String[2];
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (fields[0] == null || fields[1] == null)) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("run".equals(name)) {
+                    fields[0] = parser.getText();
+                } else if ("stage".equals(name)) {
+                    fields[1] = parser.getText();
+                }
+            }
+            if (fields[0] == null || fields[1] == null) {
+                throw new IOException("Checkpoint record without run or stage");
+            }
+            return fields;
+        }
+    }
+}
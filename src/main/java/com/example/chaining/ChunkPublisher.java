@@ -0,0 +1,265 @@
+package com.example.chaining;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+
+/**
+ * Publishes the text chunks of one streamed model response.
+ *
+ * Each chunk is UTF-8 encoded into the output's Artifact buffer as it arrives, so
+ * the per-byte work of preparing the output for downstream prompts overlaps
+ * generation and completing the response only wraps the buffer. Downstream
+ * stages take the artifact once it completes (see PromptAssembler); subscribers,
+ * such as a server client following the job, get the chunks themselves. Chunks
+ * are retained so a subscriber that arrives late still receives the output from
+ * the start, and dropped once the response completes and no subscriber is still
+ * working through them; later subscribers receive the artifact's text as a single
+ * chunk. The artifact and the time-to-first-token are also exposed as futures.
+ */
+class ChunkPublisher implements Flow.Publisher<String> {
+    private final Instant start = Instant.now();
+    private List<String> chunks = new ArrayList<>();
+    private ArtifactStore.Encoder encoder = new ArtifactStore.Encoder();
+    private final List<ChunkSubscription> subscriptions = new ArrayList<>();
+    private final CompletableFuture<Artifact> output = new CompletableFuture<>();
+    private final CompletableFuture<Duration> firstToken = new CompletableFuture<>();
+    private Artifact artifact;
+    private boolean done;
+    private Throwable error;
+
+    public CompletableFuture<Artifact> artifact() {
+        return output;
+    }
+
+    /**
+     * The complete text, decoded from the artifact for this caller.
+     */
+    public CompletableFuture<String> text() {
+        return output.thenApply(Artifact::text);
+    }
+
+    public CompletableFuture<Duration> timeToFirstToken() {
+        return firstToken;
+    }
+
+    /**
+     * Adapts a whole-response call to the chunk interface: the full text is
+     * published as a single chunk once the future completes.
+     */
+    static ChunkPublisher from(CompletableFuture<String> response) {
+        ChunkPublisher publisher = new ChunkPublisher();
+        response.whenComplete((result, failure) -> {
+            if (failure != null) {
+                publisher.fail(failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure);
+            } else {
+                publisher.emit(result);
+                publisher.complete();
+            }
+        });
+        return publisher;
+    }
+
+    /**
+     * A completed publisher whose single chunk is the artifact's text.
+     */
+    static ChunkPublisher of(Artifact artifact) {
+        ChunkPublisher publisher = new ChunkPublisher();
+        publisher.chunks = null;
+        publisher.encoder = null;
+        publisher.artifact = artifact;
+        publisher.done = true;
+        publisher.firstToken.complete(Duration.ZERO);
+        publisher.output.complete(artifact);
+        return publisher;
+    }
+
+    synchronized boolean hasChunks() {
+        return chunks != null ? !chunks.isEmpty() : artifact.size() > 0;
+    }
+
+    void emit(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        List<ChunkSubscription> targets;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            chunks.add(chunk);
+            encoder.append(chunk);
+            targets = new ArrayList<>(subscriptions);
+        }
+        firstToken.complete(Duration.between(start, Instant.now()));
+        targets.forEach(ChunkSubscription::drain);
+    }
+
+    void complete() {
+        Artifact stored;
+        List<ChunkSubscription> targets;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            // The chunks are already encoded, so this only wraps the buffer
+            stored = ArtifactStore.shared().store(encoder);
+            encoder = null;
+            artifact = stored;
+            targets = new ArrayList<>(subscriptions);
+        }
+        // An empty response never produced a first token; report the full wait instead
+        firstToken.complete(Duration.between(start, Instant.now()));
+        output.complete(stored);
+        targets.forEach(ChunkSubscription::drain);
+        synchronized (this) {
+            releaseChunks();
+        }
+    }
+
+    void fail(Throwable cause) {
+        List<ChunkSubscription> targets;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            error = cause;
+            encoder = null;
+            targets = new ArrayList<>(subscriptions);
+        }
+        firstToken.completeExceptionally(error);
+        output.completeExceptionally(error);
+        targets.forEach(ChunkSubscription::drain);
+    }
+
+    /**
+     * Drops the chunks once the artifact holds them and no subscription is
+     * part-way through them. Caller holds the lock.
+     */
+    private void releaseChunks() {
+        if (artifact != null && subscriptions.isEmpty()) {
+            chunks = null;
+        }
+    }
+
+    private int chunkCount() {
+        return chunks != null ? chunks.size() : artifact.size() > 0 ? 1 : 0;
+    }
+
+    private String chunk(int index) {
+        return chunks != null ? chunks.get(index) : artifact.text();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        ChunkSubscription subscription = new ChunkSubscription(subscriber);
+        synchronized (this) {
+            subscriptions.add(subscription);
+        }
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private class ChunkSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super String> subscriber;
+        private long demand;
+        private int cursor;
+        private boolean draining;
+        private boolean missed;
+        private boolean terminated;
+
+        ChunkSubscription(Flow.Subscriber<? super String> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Demand must be positive: " + n));
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                terminated = true;
+            }
+            synchronized (ChunkPublisher.this) {
+                subscriptions.remove(this);
+                releaseChunks();
+            }
+        }
+
+        void drain() {
+            synchronized (this) {
+                if (draining) {
+                    missed = true;
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                while (true) {
+                    String next = null;
+                    boolean finished;
+                    Throwable failure;
+                    synchronized (this) {
+                        if (terminated) {
+                            break;
+                        }
+                    }
+                    synchronized (ChunkPublisher.this) {
+                        boolean available = cursor < chunkCount();
+                        synchronized (this) {
+                            if (available && demand > 0) {
+                                next = chunk(cursor++);
+                                demand--;
+                            }
+                        }
+                        finished = done && cursor >= chunkCount();
+                        failure = error;
+                    }
+                    if (next != null) {
+                        subscriber.onNext(next);
+                        continue;
+                    }
+                    if (finished) {
+                        synchronized (this) {
+                            terminated = true;
+                        }
+                        synchronized (ChunkPublisher.this) {
+                            subscriptions.remove(this);
+                            releaseChunks();
+                        }
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                    break;
+                }
+                synchronized (this) {
+                    if (!missed) {
+                        draining = false;
+                        return;
+                    }
+                    missed = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+
+/**
+ * Anthropic Claude messages API on Bedrock.
+ */
+class ClaudeCodec implements ModelCodec {
+    private static final Object[] TEXT = {"content", 0, "text"};
+    private static final Object[] INPUT_TOKENS = {"usage", "input_tokens"};
+    private static final Object[] OUTPUT_TOKENS = {"usage", "output_tokens"};
+    // content_block_delta events carry delta.text; other events have no text
+    private static final Object[] DELTA_TEXT = {"delta", "text"};
+
+    @Override
+    public byte[] encodeRequest(String systemPrompt, Prompt userInput, int maxTokens, double temperature)
+            throws IOException {
+        ByteArrayBuilder out = new ByteArrayBuilder((int) userInput.size() + systemPrompt.length() + 128);
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("anthropic_version", "bedrock-2023-05-31");
+            json.writeNumberField("max_tokens", maxTokens);
+            json.writeArrayFieldStart("messages");
+            json.writeStartObject();
+            json.writeStringField("role", "user");
+            json.writeFieldName("content");
+            userInput.writeJsonString(json);
+            json.writeEndObject();
+            json.writeEndArray();
+            if (!systemPrompt.isEmpty()) {
+                json.writeStringField("system", systemPrompt);
+            }
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Decoded decodeResponse(byte[] body) throws IOException {
+        return ModelCodec.decode(body, TEXT, INPUT_TOKENS, OUTPUT_TOKENS);
+    }
+
+    @Override
+    public Decoded decodeChunk(byte[] chunk) throws IOException {
+        return ModelCodec.decodeStreamChunk(chunk, DELTA_TEXT);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.ValidationException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Opens connections to the Bedrock Runtime endpoint before the first real call
+ * needs them, and optionally keeps them open while the process is idle.
+ *
+ * Each warm-up is an InvokeModel for a model id that does not exist: the service
+ * authenticates it and rejects it with a ValidationException, at no charge. That
+ * exercises everything a real call needs: credential resolution, signing, DNS,
+ * the TLS handshake, and the SDK's request path, including its class loading and
+ * first JIT compilations. Warm-ups are sent concurrently so each one leaves its
+ * own connection in the client's pool. Any other outcome, typically an
+ * authentication failure, is reported, as real calls would fail the same way.
+ */
+class ConnectionWarmer implements AutoCloseable {
+    static final String WARMUP_MODEL_ID = "connection-warmup";
+
+    private final BedrockRuntimeClient client;
+    private final BedrockRuntimeAsyncClient asyncClient;
+    private final int connections;
+    private final Executor executor;
+    private ScheduledExecutorService keepWarm;
+
+    /**
+     * Result of one round of warm-ups.
+     */
+    static class Result {
+        public final int connections;
+        public final Duration elapsed;
+        /** The first unexpected failure, or null if every warm-up was rejected as intended */
+        public final String problem;
+
+        Result(int connections, Duration elapsed, String problem) {
+            this.connections = connections;
+            this.elapsed = elapsed;
+            this.problem = problem;
+        }
+    }
+
+    /**
+     * @param asyncClient may be null
+     * @param connections warm-ups sent concurrently on each client
+     * @param executor    runs the sync client's blocking warm-ups
+     */
+    ConnectionWarmer(BedrockRuntimeClient client, BedrockRuntimeAsyncClient asyncClient, int connections,
+                     Executor executor) {
+        this.client = client;
+        this.asyncClient = asyncClient;
+        this.connections = connections;
+        this.executor = executor;
+    }
+
+    Result warm() {
+        long start = System.nanoTime();
+        InvokeModelRequest request = InvokeModelRequest.builder()
+            .modelId(WARMUP_MODEL_ID)
+            .contentType("application/json")
+            .body(SdkBytes.fromUtf8String("{}"))
+            .build();
+        AtomicReference<String> problem = new AtomicReference<>();
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            calls.add(CompletableFuture.runAsync(() -> client.invokeModel(request), executor)
+                .whenComplete((ignored, error) -> check(error, problem)));
+            if (asyncClient != null) {
+                calls.add(asyncClient.invokeModel(request).whenComplete((ignored, error) -> check(error, problem)));
+            }
+        }
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+        return new Result(calls.size(), Duration.ofNanos(System.nanoTime() - start), problem.get());
+    }
+
+    /**
+     * Repeats the warm-ups at the given interval, which should be shorter than the
+     * clients' idle-connection timeout, so a quiet spell does not cost the next
+     * job its handshakes.
+     */
+    synchronized void keepWarm(Duration interval) {
+        if (keepWarm != null || interval.isZero()) {
+            return;
+        }
+        keepWarm = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-warmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        keepWarm.scheduleWithFixedDelay(() -> {
+            Result result = warm();
+            if (result.problem != null) {
+                System.err.printf("Connection keep-warm failed: %s%n", result.problem);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (keepWarm != null) {
+            keepWarm.shutdownNow();
+        }
+    }
+
+    private static void check(Throwable error, AtomicReference<String> problem) {
+        if (error == null) {
+            problem.compareAndSet(null, "warm-up call unexpectedly succeeded");
+            return;
+        }
+        Throwable cause = BackoffPolicy.rootCause(error);
+        if (!(cause instanceof ValidationException)) {
+            problem.compareAndSet(null, cause.getClass().getSimpleName() + ": " + cause.getMessage());
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A JobQueue kept in a directory that every worker on the machine can reach, so a
+ * fleet needs no service of its own.
+ *
+ * <pre>
+ * pending/{id}.json          queued jobs, claimed oldest first
+ * leased/{worker}/{id}.json  jobs leased to a worker
+ * workers/{worker}           the worker's heartbeat, as the file's modification time
+ * done/{id}.json             results, in the batch result format
+ * checkpoints/{id}/          each job's checkpoint log, kept until it succeeds
+ * </pre>
+ *
+ * Every change of a job's state is a rename, which is atomic within one file
+ * system, so a job is leased by at most one worker however many race for it.
+ * Leases are renewed per worker rather than per job: one heartbeat keeps all of
+ * a worker's jobs, and a reclaim returns all of them. A claim lists the pending
+ * directory, so its cost grows with the number of queued jobs.
+ */
+class DirectoryJobQueue implements JobQueue {
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+    private static final String JOB_SUFFIX = ".json";
+
+    private final Path pending;
+    private final Path leased;
+    private final Path workers;
+    private final Path done;
+    private final Path checkpoints;
+    private final String workerId;
+    private final Path heartbeat;
+    private final Duration leaseTimeout;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile boolean registered;
+
+    /**
+     * @param workerId     unique among the workers sharing the directory
+     * @param leaseTimeout how long after its last heartbeat a worker's jobs may be reclaimed
+     */
+    DirectoryJobQueue(Path directory, String workerId, Duration leaseTimeout) throws IOException {
+        requireValidName(workerId, "Worker ids");
+        this.pending = Files.createDirectories(directory.resolve("pending"));
+        this.leased = Files.createDirectories(directory.resolve("leased"));
+        this.workers = Files.createDirectories(directory.resolve("workers"));
+        this.done = Files.createDirectories(directory.resolve("done"));
+        this.checkpoints = Files.createDirectories(directory.resolve("checkpoints"));
+        this.workerId = workerId;
+        this.heartbeat = workers.resolve(workerId);
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    @Override
+    public boolean enqueue(String id, String request) throws IOException {
+        requireValidName(id, "Job ids");
+        String name = id + JOB_SUFFIX;
+        Path result = done.resolve(name);
+        if (Files.exists(pending.resolve(name)) || leasedBy(name) != null) {
+            return false;
+        }
+        if (Files.exists(result)) {
+            // A failed job may be enqueued again, and resumes from its checkpoints
+            if ("SUCCESS".equals(objectMapper.readTree(result.toFile()).path("status").asText())) {
+                return false;
+            }
+            Files.deleteIfExists(result);
+        }
+        ObjectNode job = objectMapper.createObjectNode();
+        job.put("id", id);
+        job.put("request", request);
+        Path temporary = write(pending, objectMapper.writeValueAsBytes(job));
+        Files.move(temporary, pending.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    @Override
+    public Lease claim() throws IOException {
+        if (!registered) {
+            heartbeat();
+        }
+        reclaimLapsed();
+        Path mine = Files.createDirectories(leased.resolve(workerId));
+        for (Path job : oldestFirst(jobFiles(pending))) {
+            Path name = job.getFileName();
+            // Finished by a worker that stalled after its job had been reclaimed
+            if (Files.exists(done.resolve(name))) {
+                Files.deleteIfExists(job);
+                continue;
+            }
+            Path lease = mine.resolve(name);
+            try {
+                Files.move(job, lease, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // Another worker claimed it first
+                continue;
+            }
+            JsonNode json = objectMapper.readTree(lease.toFile());
+            return new DirectoryLease(json.get("id").asText(), json.get("request").asText(), lease);
+        }
+        return null;
+    }
+
+    @Override
+    public void heartbeat() throws IOException {
+        // Rewriting the file updates its modification time, and recreates it if it was
+        // removed while this worker was thought dead
+        Files.write(heartbeat, workerId.getBytes(StandardCharsets.UTF_8));
+        registered = true;
+    }
+
+    @Override
+    public int liveWorkers() throws IOException {
+        long cutoff = cutoff();
+        int live = 0;
+        for (Path worker : list(workers)) {
+            FileTime beat = lastModified(worker);
+            if (beat != null && beat.toMillis() > cutoff) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    @Override
+    public boolean isDrained() throws IOException {
+        if (!jobFiles(pending).isEmpty()) {
+            return false;
+        }
+        for (Path worker : list(leased)) {
+            if (!jobFiles(worker).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Files.deleteIfExists(heartbeat);
+        deleteIfEmpty(leased.resolve(workerId));
+    }
+
+    /**
+     * Returns the jobs of every worker whose last heartbeat is older than the lease
+     * timeout to the queue, keeping their place in it.
+     */
+    private void reclaimLapsed() throws IOException {
+        long cutoff = cutoff();
+        for (Path worker : list(leased)) {
+            String owner = worker.getFileName().toString();
+            FileTime beat = lastModified(workers.resolve(owner));
+            if (owner.equals(workerId) || beat != null && beat.toMillis() > cutoff) {
+                continue;
+            }
+            for (Path job : jobFiles(worker)) {
+                try {
+                    Files.move(job, pending.resolve(job.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException e) {
+                    // Another worker reclaimed it first
+                    continue;
+                }
+                System.out.printf("Reclaimed job %s from worker %s, whose heartbeats stopped%n",
+                    jobId(job), owner);
+            }
+            deleteIfEmpty(worker);
+        }
+        for (Path worker : list(workers)) {
+            FileTime beat = lastModified(worker);
+            if (beat != null && beat.toMillis() <= cutoff && !worker.equals(heartbeat)) {
+                Files.deleteIfExists(worker);
+            }
+        }
+    }
+
+    /**
+     * The lease file of the job, or null if no worker holds it.
+     */
+    private Path leasedBy(String name) throws IOException {
+        for (Path worker : list(leased)) {
+            Path lease = worker.resolve(name);
+            if (Files.exists(lease)) {
+                return lease;
+            }
+        }
+        return null;
+    }
+
+    private long cutoff() {
+        return System.currentTimeMillis() - leaseTimeout.toMillis();
+    }
+
+    /**
+     * Writes a file under a name no reader looks for, ready to be renamed into place.
+     */
+    private static Path write(Path directory, byte[] content) throws IOException {
+        Path temporary = directory.resolve("." + UUID.randomUUID() + ".tmp");
+        Files.write(temporary, content);
+        return temporary;
+    }
+
+    private static List<Path> oldestFirst(List<Path> jobs) {
+        // Files can vanish while being sorted; those go last and fail their claim
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path job : jobs) {
+            FileTime time = lastModified(job);
+            modified.put(job, time == null ? Long.MAX_VALUE : time.toMillis());
+        }
+        List<Path> sorted = new ArrayList<>(jobs);
+        sorted.sort(Comparator.comparing(modified::get));
+        return sorted;
+    }
+
+    private static List<Path> jobFiles(Path directory) throws IOException {
+        return list(directory).stream()
+            .filter(path -> {
+                String name = path.getFileName().toString();
+                return name.endsWith(JOB_SUFFIX) && !name.startsWith(".");
+            })
+            .collect(Collectors.toList());
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteIfEmpty(Path directory) throws IOException {
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            // Still in use
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> entries = Files.walk(directory)) {
+            for (Path entry : entries.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    private static String jobId(Path job) {
+        String name = job.getFileName().toString();
+        return name.substring(0, name.length() - JOB_SUFFIX.length());
+    }
+
+    private static void requireValidName(String name, String what) {
+        if (!VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException(what + " may only contain letters, digits, '.', '_' and '-', "
+                + "and must not start with '.': " + name);
+        }
+    }
+
+    private final class DirectoryLease implements Lease {
+        private final String id;
+        private final String request;
+        private final Path file;
+
+        DirectoryLease(String id, String request, Path file) {
+            this.id = id;
+            this.request = request;
+            this.file = file;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public String request() {
+            return request;
+        }
+
+        @Override
+        public Path checkpointDirectory() {
+            return checkpoints.resolve(id);
+        }
+
+        @Override
+        public boolean isHeld() {
+            return Files.exists(file);
+        }
+
+        @Override
+        public boolean complete(ObjectNode result) throws IOException {
+            if (!isHeld()) {
+                return false;
+            }
+            Path temporary = write(done, objectMapper.writeValueAsBytes(result));
+            try {
+                // A link, unlike a rename, fails if the job already has a result: the first one stays
+                Files.createLink(done.resolve(file.getFileName()), temporary);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(file);
+                return false;
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            Files.deleteIfExists(file);
+            if ("SUCCESS".equals(result.path("status").asText())) {
+                deleteRecursively(checkpointDirectory());
+            }
+            return true;
+        }
+
+        @Override
+        public void release() throws IOException {
+            try {
+                Files.move(file, pending.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // Already reclaimed
+            }
+        }
+    }
+}
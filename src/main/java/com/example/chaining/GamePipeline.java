@@ -0,0 +1,731 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.ServiceQuotaExceededException;
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.io.BufferedReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class GamePipeline {
+    
+    private static void printTimingSummary(StageGraph.Execution execution, Duration totalTime) {
+        List<StageGraph.NodeTiming> criticalPath = execution.criticalPath();
+        System.out.println("\nTIMING SUMMARY");
+        System.out.println("-".repeat(50));
+        
+        for (StageGraph.NodeTiming timing : execution.timings()) {
+            if (timing.timeToFirstToken != null) {
+                System.out.printf("%-35s: %8.2f sec %s (first token %.2f sec)%n", 
+                    timing.name, timing.duration.toMillis() / 1000.0, timing.state,
+                    timing.timeToFirstToken.toMillis() / 1000.0);
+            } else {
+                System.out.printf("%-35s: %8.2f sec %s%n", 
+                    timing.name, timing.duration.toMillis() / 1000.0, timing.state);
+            }
+            if (timing.span != null) {
+                printSpanBreakdown(timing.span);
+            }
+        }
+        
+        System.out.println("-".repeat(50));
+        System.out.printf("Trace ID: %s%n", execution.traceId());
+        if (!criticalPath.isEmpty()) {
+            System.out.printf("Critical Path: %s%n", criticalPath.stream()
+                .map(t -> t.id)
+                .collect(Collectors.joining(" -> ")));
+        }
+        System.out.printf("Total Pipeline Time: %.2f seconds%n", totalTime.toMillis() / 1000.0);
+        System.out.println("=".repeat(50));
+    }
+    
+    /**
+     * Where a stage's time went: waiting (rate limiter, executor queue, retry backoff),
+     * the service's time to first byte, and the tokens it was billed for.
+     */
+    private static void printSpanBreakdown(Span span) {
+        if (!span.calledModel()) {
+            System.out.println("    served from cache");
+            return;
+        }
+        StringBuilder line = new StringBuilder(String.format("    wait %.0f ms (limiter %.0f, queue %.0f, backoff %.0f)",
+            (span.limiterWaitNanos + span.queueWaitNanos + span.backoffNanos) / 1e6, span.limiterWaitNanos / 1e6,
+            span.queueWaitNanos / 1e6, span.backoffNanos / 1e6));
+        if (span.timeToFirstByteNanos >= 0) {
+            line.append(String.format(", first byte %.0f ms", span.timeToFirstByteNanos / 1e6));
+        }
+        if (span.inputTokens >= 0 || span.outputTokens >= 0) {
+            line.append(String.format(", tokens %d in / %d out", Math.max(0, span.inputTokens),
+                Math.max(0, span.outputTokens)));
+        }
+        if (span.attempts > 1) {
+            line.append(String.format(", %d attempts (%d throttled)", span.attempts, span.throttles));
+        }
+        Span answeredBy = span.answeredBy;
+        if (answeredBy != null) {
+            line.append(String.format(", %s; answered by %s on %s in %.0f ms", span.status, answeredBy.name,
+                answeredBy.modelId, answeredBy.durationNanos / 1e6));
+        }
+        System.out.println(line);
+    }
+    
+    /**
+     * The four agents of the game pipeline. Agents hold no per-request state, so one
+     * set built at startup is shared by every pipeline run in the process.
+     */
+    static class PipelineAgents {
+        public final BedrockAgent architect;
+        public final BedrockAgent developer;
+        public final BedrockAgent tester;
+        public final BedrockAgent documenter;
+        public final boolean parallelTesting;
+        public final PromptAssembler.Compaction compaction;
+        
+        PipelineAgents(BedrockAgent architect, BedrockAgent developer, BedrockAgent tester,
+                       BedrockAgent documenter, boolean parallelTesting) {
+            this(architect, developer, tester, documenter, parallelTesting, PromptAssembler.Compaction.NONE);
+        }
+        
+        PipelineAgents(BedrockAgent architect, BedrockAgent developer, BedrockAgent tester,
+                       BedrockAgent documenter, boolean parallelTesting, PromptAssembler.Compaction compaction) {
+            this.architect = architect;
+            this.developer = developer;
+            this.tester = tester;
+            this.documenter = documenter;
+            this.parallelTesting = parallelTesting;
+            this.compaction = compaction;
+        }
+    }
+    
+    static PipelineAgents createAgents(AgentContext context, Dotenv dotenv) {
+        // Get model configurations from environment variables with fallback defaults
+        String architectureModel = getModelConfig(dotenv, "ARCHITECTURE_MODEL", "anthropic.claude-3-sonnet-20240229-v1:0");
+        String developmentModel = getModelConfig(dotenv, "DEVELOPMENT_MODEL", "anthropic.claude-3-haiku-20240307-v1:0");
+        String testingModel = getModelConfig(dotenv, "TESTING_MODEL", "amazon.nova-lite-v1:0");
+        String documentationModel = getModelConfig(dotenv, "DOCUMENTATION_MODEL", "amazon.titan-text-express-v1");
+        boolean parallelTesting = Boolean.parseBoolean(getModelConfig(dotenv, "PARALLEL_TESTING", "false"));
+        PromptAssembler.Compaction compaction = PromptAssembler.Compaction.valueOf(
+            getModelConfig(dotenv, "CONTEXT_COMPACTION", "none").toUpperCase());
+        
+        return new PipelineAgents(
+            stageAgent(context, dotenv, "ARCHITECTURE", architectureModel,
+                "You are a software architect. Create detailed technical specifications and architecture for software projects."),
+            stageAgent(context, dotenv, "DEVELOPMENT", developmentModel, 
+                "You are a Python developer. Write clean, functional code based on specifications."),
+            stageAgent(context, dotenv, "TESTING", testingModel,
+                "You are a QA engineer. Create comprehensive tests for code to ensure it works correctly."),
+            stageAgent(context, dotenv, "DOCUMENTATION", documentationModel, ""),
+            parallelTesting,
+            compaction);
+    }
+    
+    /**
+     * A stage opts into hedging with {@code <STAGE>_HEDGE=true} and into model
+     * fallback with {@code <STAGE>_FALLBACK_MODELS=modelId,modelId}; either gives it a
+     * HedgingAgent with its own hedge budget.
+     */
+    private static BedrockAgent stageAgent(AgentContext context, Dotenv dotenv, String stage, String modelId,
+                                           String systemPrompt) {
+        boolean hedge = Boolean.parseBoolean(getModelConfig(dotenv, stage + "_HEDGE", "false"));
+        List<String> fallbackModels = Arrays.stream(getModelConfig(dotenv, stage + "_FALLBACK_MODELS", "").split(","))
+            .map(String::trim)
+            .filter(model -> !model.isEmpty())
+            .collect(Collectors.toList());
+        if (!hedge && fallbackModels.isEmpty()) {
+            return new BedrockAgent(context, modelId, systemPrompt);
+        }
+        HedgePolicy policy = hedge ? new HedgePolicy(
+            Double.parseDouble(getModelConfig(dotenv, "HEDGE_PERCENTILE", "95")),
+            Integer.parseInt(getModelConfig(dotenv, "HEDGE_MIN_SAMPLES", "20")),
+            Duration.ofMillis(Long.parseLong(getModelConfig(dotenv, "HEDGE_INITIAL_DELAY_MS", "30000"))),
+            Double.parseDouble(getModelConfig(dotenv, "HEDGE_MAX_FRACTION", "0.1"))) : null;
+        HedgingAgent agent = new HedgingAgent(context, modelId, systemPrompt, policy, fallbackModels);
+        System.out.printf("%s stage: %s%n", stage.charAt(0) + stage.substring(1).toLowerCase(), agent.describe());
+        return agent;
+    }
+    
+    private static boolean anyStageHedged(Dotenv dotenv) {
+        return Stream.of("ARCHITECTURE", "DEVELOPMENT", "TESTING", "DOCUMENTATION")
+            .anyMatch(stage -> Boolean.parseBoolean(getModelConfig(dotenv, stage + "_HEDGE", "false")));
+    }
+    
+    static StageGraph buildGameGraph(String projectRequest, PipelineAgents agents) {
+        BedrockAgent architectAgent = agents.architect;
+        BedrockAgent developerAgent = agents.developer;
+        BedrockAgent testerAgent = agents.tester;
+        BedrockAgent documenterAgent = agents.documenter;
+        StageGraph graph = new StageGraph();
+        
+        graph.addStage("architecture", "Architecture (Claude Sonnet)", architectAgent, List.of(),
+            inputs -> CompletableFuture.completedFuture(
+                Prompt.of("Create a detailed architecture and rulebook for: " + projectRequest)));
+        
+        // Prompts reference the upstream outputs rather than copying them. Compaction only reduces code() inputs
+        // to their code blocks, but under it any input can lose paragraphs already sent earlier in the prompt
+        graph.addStage("development", "Development (Claude Haiku)", developerAgent, List.of("architecture"),
+            inputs -> new PromptAssembler(agents.compaction)
+                .literal("Based on this architecture, write complete Python code:\n")
+                .output(inputs.get("architecture"))
+                .assemble());
+        
+        if (agents.parallelTesting) {
+            // Test scaffolding written from the architecture alone runs alongside development
+            graph.addStage("testing", "Testing (Nova Lite)", testerAgent, List.of("architecture"),
+                inputs -> new PromptAssembler(agents.compaction)
+                    .literal("Create comprehensive unit tests for code implementing this architecture:\n")
+                    .output(inputs.get("architecture"))
+                    .assemble());
+        } else {
+            graph.addStage("testing", "Testing (Nova Lite)", testerAgent, List.of("development"),
+                inputs -> new PromptAssembler(agents.compaction)
+                    .literal("Create comprehensive unit tests for this code:\n")
+                    .code(inputs.get("development"))
+                    .assemble());
+        }
+        
+        graph.addStage("documentation", "Documentation (Titan Express)", documenterAgent,
+            List.of("architecture", "development", "testing"),
+            inputs -> new PromptAssembler(agents.compaction)
+                .literal("Act as a technical writer. Create comprehensive documentation for this project: " +
+                    projectRequest + ". Include setup instructions, usage guide, architecture overview, testing approach, and API reference.\n\n" +
+                    "Architecture:\n")
+                .output(inputs.get("architecture"))
+                .literal("\n\nCode Implementation:\n")
+                .code(inputs.get("development"))
+                .literal("\n\nTest Suite:\n")
+                .code(inputs.get("testing"))
+                .literal("\n\nCreate documentation that explains the architecture decisions, how to use the application, and how it was tested.")
+                .assemble());
+        
+        return graph;
+    }
+    
+    private static void gameDevelopmentPipeline(PipelineAgents agents, boolean streaming, CheckpointLog checkpointLog,
+                                                String runId, boolean resume) throws Exception {
+        String projectRequest = "Create a simple Tic-Tac-Toe (X&Os) game in Python";
+        CheckpointLog.Run checkpoints = checkpointLog == null ? null
+            : checkpointLog.run(CheckpointLog.runKey(runId, projectRequest), resume);
+        Instant pipelineStart = Instant.now();
+        
+        System.out.println("Model Configuration:");
+        System.out.printf("  Architecture: %s%n", agents.architect.getModelId());
+        System.out.printf("  Development:  %s%n", agents.developer.getModelId());
+        System.out.printf("  Testing:      %s%n", agents.tester.getModelId());
+        System.out.printf("  Documentation: %s%n", agents.documenter.getModelId());
+        System.out.printf("  Streaming:    %s%n", streaming ? "enabled" : "disabled");
+        System.out.printf("  Testing input: %s%n", agents.parallelTesting ? "architecture (parallel)" : "code");
+        System.out.printf("  Compaction:   %s%n", agents.compaction.name().toLowerCase());
+        if (checkpoints != null) {
+            System.out.printf("  Checkpoints:  %s (run %s)%n", resume ? "resuming" : "recording", checkpoints.key);
+        }
+        System.out.println();
+        
+        StageGraph graph = buildGameGraph(projectRequest, agents);
+        List<StageGraph.Stage> stages = graph.stages();
+        
+        StageGraph.Execution execution = graph.run(streaming, new StageGraph.StageListener() {
+            @Override
+            public void onStart(StageGraph.Stage stage) {
+                synchronized (System.out) {
+                    System.out.printf("[%d/%d] Starting %s...%n",
+                        stages.indexOf(stage) + 1, stages.size(), stage.displayName);
+                }
+            }
+            
+            @Override
+            public void onComplete(StageGraph.Stage stage, Artifact output, StageGraph.NodeTiming timing) {
+                synchronized (System.out) {
+                    System.out.printf("%n=== %s ===%n%s%n%n", stage.id.toUpperCase(), output.text());
+                    System.out.printf("Stage %d completed successfully in %.2f seconds%n%n",
+                        stages.indexOf(stage) + 1, timing.duration.toMillis() / 1000.0);
+                }
+            }
+            
+            @Override
+            public void onResume(StageGraph.Stage stage, CheckpointLog.Checkpoint checkpoint) {
+                synchronized (System.out) {
+                    System.out.printf("[%d/%d] Resumed %s from checkpoint (originally %.2f seconds, trace %s)%n",
+                        stages.indexOf(stage) + 1, stages.size(), stage.displayName,
+                        checkpoint.durationMillis / 1000.0, checkpoint.traceId);
+                }
+            }
+        }, checkpoints);
+        
+        try {
+            execution.await();
+            
+            // Calculate total time
+            Duration totalDuration = Duration.between(pipelineStart, Instant.now());
+            
+            System.out.println("\n" + "=".repeat(50));
+            System.out.println("PIPELINE COMPLETE - 4 AGENTS COLLABORATED");
+            System.out.println("=".repeat(50));
+            System.out.println("[DONE] Architecture designed by Claude Sonnet");
+            System.out.println("[DONE] Code written by Claude Haiku");
+            System.out.println("[DONE] Tests created by Nova Lite");
+            System.out.println("[DONE] Documentation written by Titan Express");
+            System.out.println("=".repeat(50));
+            
+            // Print timing summary
+            printTimingSummary(execution, totalDuration);
+            
+        } catch (Exception e) {
+            Duration totalDuration = Duration.between(pipelineStart, Instant.now());
+            List<StageGraph.NodeTiming> timings = execution.timings();
+            
+            // The scheduler records which node actually failed; dependents are marked SKIPPED
+            StageGraph.NodeTiming failed = timings.stream()
+                .filter(t -> t.state == StageGraph.State.FAILED)
+                .findFirst()
+                .orElse(null);
+            
+            if (failed != null) {
+                int stageNumber = stages.stream().map(s -> s.id).collect(Collectors.toList()).indexOf(failed.id) + 1;
+                System.out.printf("%nPIPELINE FAILED at Stage %d (%s)%n", stageNumber, failed.name);
+                System.out.printf("Time spent: %.2f seconds%n", failed.duration.toMillis() / 1000.0);
+            } else {
+                System.out.printf("%nPIPELINE FAILED%n");
+            }
+            System.out.printf("Error details: %s%n", e.getMessage());
+            System.out.println("\nPossible causes:");
+            System.out.println("1. Network connectivity issue");
+            System.out.println("2. Invalid AWS credentials");
+            System.out.printf("3. Model not available in region %s%n", 
+                System.getenv().getOrDefault("AWS_DEFAULT_REGION", "us-east-1"));
+            System.out.println("4. Insufficient permissions for the model");
+            if (BackoffPolicy.isThrottling(e)) {
+                System.out.println("5. Model throttled beyond the retry deadline; lower BEDROCK_REQUESTS_PER_SECOND "
+                    + "or BEDROCK_TOKENS_PER_MINUTE to match your account quota");
+            }
+            if (BackoffPolicy.rootCause(e) instanceof ServiceQuotaExceededException) {
+                System.out.println("5. Account service quota exceeded; retrying cannot help, request a quota increase");
+            }
+            
+            if (checkpoints != null && timings.stream().anyMatch(t -> t.state == StageGraph.State.SUCCESS)) {
+                System.out.println("\nCompleted stages were checkpointed; rerun with --resume to continue from them.");
+            }
+            
+            printTimingSummary(execution, totalDuration);
+            throw e;
+        }
+    }
+    
+    static String getModelConfig(Dotenv dotenv, String envKey, String defaultValue) {
+        // Try system environment variable first
+        String value = System.getenv(envKey);
+        if (value != null && !value.trim().isEmpty()) {
+            return value;
+        }
+        
+        // Try .env file if dotenv is loaded
+        if (dotenv != null) {
+            value = dotenv.get(envKey);
+            if (value != null && !value.trim().isEmpty()) {
+                return value;
+            }
+        }
+        
+        // Fall back to default
+        return defaultValue;
+    }
+    
+    /**
+     * Mock server behaviour from MOCK_* settings; defaults approximate a mid-sized Claude model.
+     */
+    static MockBedrockServer.Behavior mockBehavior(Dotenv dotenv) {
+        return new MockBedrockServer.Behavior(
+            MockBedrockServer.Latency.parse(getModelConfig(dotenv, "MOCK_FIRST_TOKEN_MS", "lognormal:600:0.4")),
+            Double.parseDouble(getModelConfig(dotenv, "MOCK_TOKENS_PER_SECOND", "80")),
+            Integer.parseInt(getModelConfig(dotenv, "MOCK_OUTPUT_TOKENS", "400")),
+            Integer.parseInt(getModelConfig(dotenv, "MOCK_TOKENS_PER_CHUNK", "8")),
+            Double.parseDouble(getModelConfig(dotenv, "MOCK_THROTTLE_RATE", "0")),
+            Integer.parseInt(getModelConfig(dotenv, "MOCK_MAX_CONCURRENT", "0")),
+            Double.parseDouble(getModelConfig(dotenv, "MOCK_ERROR_RATE", "0")),
+            Long.parseLong(getModelConfig(dotenv, "MOCK_SEED", "42")));
+    }
+    
+    /**
+     * Serves pipeline jobs over HTTP until the process is stopped, keeping the
+     * pooled connections warm while it is idle.
+     */
+    private static void servePipelines(PipelineAgents agents, boolean streaming, Dotenv dotenv, Integer portArg,
+                                       CheckpointLog checkpointLog, boolean resume, ConnectionWarmer warmer)
+            throws Exception {
+        String host = getModelConfig(dotenv, "SERVER_HOST", "127.0.0.1");
+        int port = portArg != null ? portArg : Integer.parseInt(getModelConfig(dotenv, "SERVER_PORT", "8080"));
+        warmer.keepWarm(Duration.ofSeconds(Long.parseLong(getModelConfig(dotenv, "SERVER_KEEP_WARM_SECONDS", "45"))));
+        PipelineServer server = new PipelineServer(agents, streaming, host, port,
+            Integer.parseInt(getModelConfig(dotenv, "SERVER_MAX_JOBS", "16")),
+            Integer.parseInt(getModelConfig(dotenv, "SERVER_RETAINED_JOBS", "1000")),
+            checkpointLog, resume);
+        System.out.printf("Serving pipeline jobs at http://%s:%d/jobs (Ctrl-C to stop)%n", host, server.port());
+        try {
+            server.awaitShutdown();
+        } finally {
+            server.close(Duration.ofSeconds(
+                Long.parseLong(getModelConfig(dotenv, "SERVER_DRAIN_SECONDS", "30"))));
+        }
+    }
+    
+    /**
+     * Adds each job of a batch input file to the queue, skipping ids it already holds.
+     */
+    private static void enqueueJobs(Path queueDir, Path input) throws Exception {
+        JobQueue queue = new DirectoryJobQueue(queueDir, "enqueue", Duration.ZERO);
+        int[] counts = new int[2];
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            BatchRunner.readJobs(reader, (id, projectRequest) -> {
+                try {
+                    counts[queue.enqueue(id, projectRequest) ? 0 : 1]++;
+                } catch (IllegalArgumentException e) {
+                    System.err.printf("Skipping job: %s%n", e.getMessage());
+                }
+            });
+        }
+        System.out.printf("Enqueued %d jobs to %s (%d already queued, running or done); results are written "
+            + "to %s%n", counts[0], queueDir, counts[1], queueDir.resolve("done"));
+    }
+    
+    /**
+     * Runs jobs from the shared queue until the process is stopped, or until the
+     * queue is drained.
+     */
+    private static void runWorker(PipelineAgents agents, boolean streaming, Dotenv dotenv, Path queueDir,
+                                  boolean untilDrained) throws Exception {
+        String workerId = getModelConfig(dotenv, "WORKER_ID",
+            InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid());
+        Duration leaseTimeout = Duration.ofSeconds(Long.parseLong(getModelConfig(dotenv, "WORKER_LEASE_SECONDS", "30")));
+        JobQueue queue = new DirectoryJobQueue(queueDir, workerId, leaseTimeout);
+        System.out.printf("Worker %s on queue %s (lease %d s)%n", workerId, queueDir, leaseTimeout.toSeconds());
+        new PipelineWorker(agents, streaming, queue,
+            Integer.parseInt(getModelConfig(dotenv, "WORKER_MAX_JOBS", "8")),
+            leaseTimeout.dividedBy(3),
+            Duration.ofMillis(Long.parseLong(getModelConfig(dotenv, "WORKER_POLL_MS", "1000"))),
+            Duration.ofMillis(Long.parseLong(getModelConfig(dotenv, "CHECKPOINT_SYNC_MS", "100"))))
+            .run(untilDrained, Duration.ofSeconds(Long.parseLong(getModelConfig(dotenv, "WORKER_DRAIN_SECONDS", "30"))));
+    }
+    
+    private static String requireValue(String[] args, int index, String flag) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(flag + " requires a value");
+        }
+        return args[index];
+    }
+    
+    public static void main(String[] args) {
+        Instant mainStart = Instant.now();
+        try {
+            boolean streamFlag = false;
+            boolean serveFlag = false;
+            boolean workerFlag = false;
+            boolean untilDrainedFlag = false;
+            String enqueueInput = null;
+            Integer portArg = null;
+            boolean cacheFlag = false;
+            boolean mockFlag = false;
+            boolean checkpointFlag = false;
+            boolean resumeFlag = false;
+            String runIdArg = null;
+            String batchInput = null;
+            String batchOutput = "batch_results.jsonl";
+            Integer concurrencyArg = null;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--stream" -> streamFlag = true;
+                    case "--cache" -> cacheFlag = true;
+                    case "--mock-server" -> mockFlag = true;
+                    case "--checkpoint" -> checkpointFlag = true;
+                    case "--serve" -> serveFlag = true;
+                    case "--worker" -> workerFlag = true;
+                    case "--until-drained" -> untilDrainedFlag = true;
+                    case "--enqueue" -> enqueueInput = requireValue(args, ++i, "--enqueue");
+                    case "--port" -> portArg = Integer.parseInt(requireValue(args, ++i, "--port"));
+                    case "--resume" -> resumeFlag = true;
+                    case "--run-id" -> runIdArg = requireValue(args, ++i, "--run-id");
+                    case "--batch" -> batchInput = requireValue(args, ++i, "--batch");
+                    case "--output" -> batchOutput = requireValue(args, ++i, "--output");
+                    case "--concurrency" -> concurrencyArg = Integer.parseInt(requireValue(args, ++i, "--concurrency"));
+                    default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+            }
+            
+            // Load .env file
+            Dotenv dotenv = null;
+            try {
+                dotenv = Dotenv.configure().ignoreIfMissing().load();
+                System.out.println(".env file loaded successfully");
+            } catch (Exception e) {
+                System.out.println("Warning: Could not load .env file: " + e.getMessage());
+            }
+            
+            // Enqueueing needs no clients; without --worker it is all this process does
+            Path queueDir = Path.of(getModelConfig(dotenv, "QUEUE_DIR", ".queue"));
+            if (enqueueInput != null) {
+                enqueueJobs(queueDir, Path.of(enqueueInput));
+                if (!workerFlag) {
+                    return;
+                }
+            }
+            
+            System.out.println("AWS Bedrock 4-Agent Pipeline (Java)");
+            System.out.println("====================================");
+            System.out.println("Starting 4-Agent Game Development Pipeline...\n");
+            
+            // Set environment variables from .env file if loaded
+            if (dotenv != null) {
+                // Set AWS credentials in system properties if they exist in .env
+                String accessKey = dotenv.get("AWS_ACCESS_KEY_ID");
+                String secretKey = dotenv.get("AWS_SECRET_ACCESS_KEY");
+                String region = dotenv.get("AWS_DEFAULT_REGION");
+                
+                if (accessKey != null && secretKey != null) {
+                    System.setProperty("aws.accessKeyId", accessKey);
+                    System.setProperty("aws.secretAccessKey", secretKey);
+                    System.out.println("AWS credentials loaded from .env file");
+                }
+                if (region != null) {
+                    System.setProperty("aws.region", region);
+                }
+            }
+            
+            // Get region from environment
+            String region = System.getProperty("aws.region");
+            if (region == null) {
+                region = System.getenv("AWS_DEFAULT_REGION");
+            }
+            if (region == null && dotenv != null) {
+                region = dotenv.get("AWS_DEFAULT_REGION");
+            }
+            if (region == null) {
+                region = "us-east-1";
+            }
+            System.out.printf("Using region: %s%n%n", region);
+            
+            // Streaming uses InvokeModelWithResponseStream, which is only available on the async client
+            boolean streaming = streamFlag
+                || Boolean.parseBoolean(getModelConfig(dotenv, "STREAMING_MODE", "false"));
+            // Hedged stages race their calls on the async client, whose requests can be aborted
+            boolean hedging = anyStageHedged(dotenv);
+            
+            // Executor and connection pool are sized for I/O-bound model calls, not for the core count
+            String executorMode = getModelConfig(dotenv, "AGENT_EXECUTOR", "auto");
+            int maxThreads = Integer.parseInt(getModelConfig(dotenv, "AGENT_MAX_THREADS", "256"));
+            int maxConnections = Integer.parseInt(getModelConfig(dotenv, "BEDROCK_MAX_CONNECTIONS", "256"));
+            // Idle pooled connections are kept this long; the server's keep-warm interval stays below it
+            Duration connectionMaxIdle = Duration.ofSeconds(
+                Long.parseLong(getModelConfig(dotenv, "BEDROCK_CONNECTION_MAX_IDLE_SECONDS", "60")));
+            boolean nonBlocking = "async".equalsIgnoreCase(getModelConfig(dotenv, "AGENT_CLIENT_MODE", "sync"));
+            ExecutorService agentExecutor = AgentExecutors.create(executorMode, maxThreads);
+            
+            // Throttling is handled per model by the shared limiter, so the SDK's own retries are
+            // disabled below; otherwise they would hide 429s from the limiter and multiply attempts
+            ModelRateLimiter.configureDefaults(
+                Double.parseDouble(getModelConfig(dotenv, "BEDROCK_REQUESTS_PER_SECOND", "5")),
+                Double.parseDouble(getModelConfig(dotenv, "BEDROCK_TOKENS_PER_MINUTE", "200000")));
+            ModelRateLimiter.configureModels(getModelConfig(dotenv, "BEDROCK_MODEL_LIMITS", ""));
+            // Workers sharing a queue draw on one budget per model, so the fleet keeps to the account quota
+            if (workerFlag && Boolean.parseBoolean(getModelConfig(dotenv, "WORKER_SHARED_RATE_LIMITS", "true"))) {
+                ModelRateLimiter.shareAcross(queueDir.resolve("rates"));
+            }
+            BackoffPolicy backoffPolicy = new BackoffPolicy(
+                Integer.parseInt(getModelConfig(dotenv, "BEDROCK_MAX_ATTEMPTS", "6")),
+                Duration.ofMillis(500), Duration.ofSeconds(20),
+                Duration.ofSeconds(Long.parseLong(getModelConfig(dotenv, "BEDROCK_RETRY_DEADLINE_SECONDS", "180"))));
+            System.out.printf("Agent executor: %s, client mode: %s%n%n",
+                AgentExecutors.describe(agentExecutor), nonBlocking ? "async (non-blocking)" : "sync");
+            
+            // Every model call is recorded as a span; exporting spans and serving metrics are opt-in
+            PipelineMetrics metrics = new PipelineMetrics();
+            String metricsFile = getModelConfig(dotenv, "METRICS_JSONL", "");
+            if (!metricsFile.isEmpty()) {
+                metrics.addExporter(new JsonlSpanExporter(Path.of(metricsFile)));
+                System.out.printf("Writing spans to %s%n", metricsFile);
+            }
+            int metricsPort = Integer.parseInt(getModelConfig(dotenv, "METRICS_PORT", "0"));
+            if (metricsPort > 0) {
+                // Loopback unless METRICS_HOST says otherwise, as for the job API
+                PrometheusExporter prometheus = new PrometheusExporter(metrics,
+                    getModelConfig(dotenv, "METRICS_HOST", "127.0.0.1"), metricsPort);
+                metrics.addExporter(prometheus);
+                System.out.printf("Serving Prometheus metrics at http://%s:%d/metrics%n", prometheus.host(),
+                    prometheus.port());
+            }
+            
+            // Either an embedded mock server or an explicit endpoint (e.g. a standalone mock or a VPC endpoint)
+            MockBedrockServer mockServer = mockFlag ? MockBedrockServer.start(0, mockBehavior(dotenv)) : null;
+            String configuredEndpoint = getModelConfig(dotenv, "BEDROCK_ENDPOINT", "");
+            URI endpoint = mockServer != null ? mockServer.endpoint()
+                : configuredEndpoint.isEmpty() ? null : URI.create(configuredEndpoint);
+            AwsCredentialsProvider credentials = mockServer != null
+                ? StaticCredentialsProvider.create(AwsBasicCredentials.create("mock", "mock"))
+                : DefaultCredentialsProvider.create();
+            if (mockServer != null) {
+                System.out.printf("Mock Bedrock server at %s (%s)%n%n", endpoint, mockBehavior(dotenv).describe());
+            } else if (endpoint != null) {
+                System.out.printf("Bedrock endpoint override: %s%n%n", endpoint);
+            }
+            
+            // Create Bedrock clients with try-with-resources for proper cleanup
+            try (mockServer;
+                 BedrockRuntimeClient client = BedrockRuntimeClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .applyMutation(b -> {
+                    if (endpoint != null) {
+                        b.endpointOverride(endpoint);
+                    }
+                })
+                .httpClientBuilder(ApacheHttpClient.builder()
+                    .maxConnections(maxConnections)
+                    .connectionMaxIdleTime(connectionMaxIdle)
+                    .tcpKeepAlive(true))
+                .overrideConfiguration(c -> c.retryPolicy(RetryPolicy.none())
+                    .addExecutionInterceptor(new SpanInterceptor())
+                    .addMetricPublisher(metrics.sdkPublisher()))
+                .build();
+                 BedrockRuntimeAsyncClient asyncClient = streaming || nonBlocking || hedging ? BedrockRuntimeAsyncClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .applyMutation(b -> {
+                    if (endpoint != null) {
+                        b.endpointOverride(endpoint);
+                    }
+                })
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                    .maxConcurrency(maxConnections)
+                    .maxPendingConnectionAcquires(Math.max(10_000, maxConnections * 4))
+                    .connectionMaxIdleTime(connectionMaxIdle)
+                    .tcpKeepAlive(true))
+                .overrideConfiguration(c -> c.retryPolicy(RetryPolicy.none())
+                    .addExecutionInterceptor(new SpanInterceptor())
+                    .addMetricPublisher(metrics.sdkPublisher()))
+                .build() : null) {
+                Instant clientsBuilt = Instant.now();
+                
+                // Handshakes and credential resolution are paid now rather than by the first stage calls
+                int prewarmConnections = Integer.parseInt(
+                    getModelConfig(dotenv, "PREWARM_CONNECTIONS", serveFlag ? "8" : "0"));
+                ConnectionWarmer warmer = new ConnectionWarmer(client, asyncClient, prewarmConnections, agentExecutor);
+                if (prewarmConnections > 0) {
+                    ConnectionWarmer.Result warmed = warmer.warm();
+                    System.out.printf("Pre-warmed %d connections in %d ms%n", warmed.connections,
+                        warmed.elapsed.toMillis());
+                    if (warmed.problem != null) {
+                        System.out.printf("Warning: connection warm-up failed (%s); check credentials and region%n",
+                            warmed.problem);
+                    }
+                }
+                Instant warmedUp = Instant.now();
+                
+                // Re-runs with identical prompts are served from the cache instead of re-paying the model call
+                ResponseCache cache = cacheFlag || Boolean.parseBoolean(getModelConfig(dotenv, "RESPONSE_CACHE", "false"))
+                    ? new ResponseCache(Path.of(getModelConfig(dotenv, "RESPONSE_CACHE_DIR", ".cache")),
+                        Long.parseLong(getModelConfig(dotenv, "RESPONSE_CACHE_MEMORY_MB", "64")) * 1024 * 1024)
+                    : null;
+                
+                // Completed stages are logged so a failed run can be resumed; --resume implies --checkpoint
+                boolean resume = resumeFlag || Boolean.parseBoolean(getModelConfig(dotenv, "RESUME", "false"));
+                CheckpointLog checkpointLog = resume || checkpointFlag
+                    || Boolean.parseBoolean(getModelConfig(dotenv, "CHECKPOINTS", "false"))
+                    ? new CheckpointLog(Path.of(getModelConfig(dotenv, "CHECKPOINT_DIR", ".checkpoints")),
+                        Duration.ofMillis(Long.parseLong(getModelConfig(dotenv, "CHECKPOINT_SYNC_MS", "100"))))
+                    : null;
+                if (checkpointLog != null) {
+                    System.out.printf("Checkpoint log: %s (%d runs recorded)%s%n%n",
+                        getModelConfig(dotenv, "CHECKPOINT_DIR", ".checkpoints"), checkpointLog.runCount(),
+                        resume ? ", resuming completed stages" : "");
+                }
+                
+                // Large stage outputs move off the heap into mapped files instead of living as Strings
+                String artifactDir = getModelConfig(dotenv, "ARTIFACT_DIR", "");
+                ArtifactStore.configure(
+                    Long.parseLong(getModelConfig(dotenv, "ARTIFACT_SPILL_BYTES",
+                        String.valueOf(ArtifactStore.DEFAULT_SPILL_THRESHOLD))),
+                    artifactDir.isEmpty() ? null : Path.of(artifactDir));
+                
+                AgentContext context = new AgentContext(client, asyncClient, agentExecutor, nonBlocking,
+                    backoffPolicy, cache, metrics);
+                PipelineAgents agents = createAgents(context, dotenv);
+                
+                // Reported from JVM start, so VM boot and class loading before main are included
+                Instant jvmStart = Instant.ofEpochMilli(ManagementFactory.getRuntimeMXBean().getStartTime());
+                System.out.printf("Startup: JVM to main %d ms, clients %d ms, pre-warm %d ms, ready %d ms "
+                        + "after JVM start%n%n", Duration.between(jvmStart, mainStart).toMillis(),
+                    Duration.between(mainStart, clientsBuilt).toMillis(),
+                    Duration.between(clientsBuilt, warmedUp).toMillis(),
+                    Duration.between(jvmStart, Instant.now()).toMillis());
+                
+                try {
+                    if (workerFlag) {
+                        runWorker(agents, streaming, dotenv, queueDir, untilDrainedFlag);
+                        metrics.printSummary();
+                        ArtifactStore.shared().printSummary();
+                    } else if (serveFlag) {
+                        servePipelines(agents, streaming, dotenv, portArg, checkpointLog, resume, warmer);
+                        metrics.printSummary();
+                        ArtifactStore.shared().printSummary();
+                    } else if (batchInput != null) {
+                        int concurrency = concurrencyArg != null ? concurrencyArg
+                            : Integer.parseInt(getModelConfig(dotenv, "BATCH_CONCURRENCY", "8"));
+                        new BatchRunner(agents, streaming, concurrency, checkpointLog, resume)
+                            .run(Path.of(batchInput), Path.of(batchOutput));
+                        metrics.printSummary();
+                        ArtifactStore.shared().printSummary();
+                    } else {
+                        // Run the pipeline
+                        gameDevelopmentPipeline(agents, streaming, checkpointLog,
+                            runIdArg != null ? runIdArg : getModelConfig(dotenv, "RUN_ID", "game"), resume);
+                    }
+                    if (cache != null) {
+                        cache.printSummary();
+                    }
+                    if (checkpointLog != null) {
+                        checkpointLog.printSummary();
+                    }
+                    if (mockServer != null) {
+                        mockServer.printSummary();
+                    }
+                } finally {
+                    warmer.close();
+                    agentExecutor.shutdown();
+                    if (cache != null) {
+                        cache.close();
+                    }
+                    if (checkpointLog != null) {
+                        checkpointLog.close();
+                    }
+                    metrics.close();
+                }
+                
+                System.out.println("\nJava Implementation Complete!");
+            }
+            
+        } catch (Exception e) {
+            System.err.printf("%nPipeline failed with error: %s%n", e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.example.chaining;
+
+import java.time.Duration;
+
+/**
+ * When a stage's model call is late enough to be worth a duplicate, and how many
+ * duplicates the stage may send.
+ *
+ * The threshold is a percentile (p95 by default) of the model's recent latency
+ * from ModelHealth, so it follows the model as it speeds up or slows down. For
+ * streamed calls it is time to first token instead: once a stream has started,
+ * downstream stages are already consuming it and it cannot be switched. Until the
+ * model has minSamples recent answers, the fixed initialDelay applies.
+ *
+ * At p95 about one call in twenty is hedged. A budget caps hedges at
+ * maxHedgeFraction of the stage's calls, for when latencies shift faster than
+ * the window follows. It is a token bucket that starts with one hedge, so even
+ * a stage's first slow call can be hedged, and that saves at most
+ * MAX_SAVED_HEDGES, so a quiet spell cannot turn into a burst of hedges. Each
+ * HedgingAgent needs its own instance.
+ */
+class HedgePolicy {
+    public final double percentile;
+    public final int minSamples;
+    public final Duration initialDelay;
+    public final double maxHedgeFraction;
+
+    private static final long HEDGE = 1_000_000;
+    private static final long MAX_SAVED_HEDGES = 3;
+
+    // In millionths of a hedge, so that ten calls at 10% add up to exactly one
+    private final long creditPerCall;
+    private long credit;
+
+    HedgePolicy(double percentile, int minSamples, Duration initialDelay, double maxHedgeFraction) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (maxHedgeFraction < 0) {
+            throw new IllegalArgumentException("maxHedgeFraction must not be negative");
+        }
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, minSamples);
+        this.initialDelay = initialDelay;
+        this.maxHedgeFraction = maxHedgeFraction;
+        this.creditPerCall = Math.round(maxHedgeFraction * HEDGE);
+        // A zero fraction disables hedging, the first hedge included
+        this.credit = maxHedgeFraction > 0 ? HEDGE : 0;
+    }
+
+    static HedgePolicy defaults() {
+        return new HedgePolicy(95, 20, Duration.ofSeconds(30), 0.1);
+    }
+
+    /**
+     * Counts a call toward the budget and returns how long to wait before hedging it.
+     */
+    Duration delayFor(String modelId, boolean streaming) {
+        synchronized (this) {
+            credit = Math.min(credit + creditPerCall, MAX_SAVED_HEDGES * HEDGE);
+        }
+        ModelHealth health = ModelHealth.forModel(modelId);
+        Duration threshold = streaming ? health.firstToken(percentile, minSamples)
+            : health.latency(percentile, minSamples);
+        return threshold != null ? threshold : initialDelay;
+    }
+
+    /**
+     * Takes one hedge from the budget, if any is left.
+     */
+    synchronized boolean tryHedge() {
+        if (credit < HEDGE) {
+            return false;
+        }
+        credit -= HEDGE;
+        return true;
+    }
+
+    String describe() {
+        return String.format("p%.0f after %d samples (initially %d ms), at most %.0f%% of calls",
+            percentile, minSamples, initialDelay.toMillis(), maxHedgeFraction * 100);
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.chaining;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A stage agent that hedges slow calls and falls back to other models when its
+ * own fails.
+ *
+ * A call that has not finished by the policy's threshold (for a streamed call,
+ * that has not produced its first token) gets a duplicate. The duplicate goes to
+ * the best-ranked fallback model, or to the same model if none are configured.
+ * The first call to succeed answers the stage and the other is cancelled, which
+ * aborts its HTTP request. If every call in flight fails, the remaining fallback
+ * models are tried one at a time. Fallbacks are ranked by ModelHealth each time
+ * one is needed, so a fallback that is slow or failing right now is passed over.
+ *
+ * Calls under the threshold cost exactly one request; only the slow tail pays
+ * for a second one. Each call has its own span, named after the stage with a
+ * ":hedge" or ":fallback" suffix. The first call runs on the stage's own span,
+ * which is recorded only once the race is settled, with the stage's outcome, and
+ * links to the call that answered through {@link Span#answeredBy}.
+ */
+class HedgingAgent extends BedrockAgent {
+    private final HedgePolicy policy;
+    private final BedrockAgent primary;
+    private final List<BedrockAgent> fallbacks;
+    // Stage spans whose races are still running; the primary leaves them for the race to finish
+    private final Set<Span> unsettled = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param policy when to hedge, or null to only fall back after failures
+     */
+    HedgingAgent(AgentContext context, String modelId, String systemPrompt, HedgePolicy policy,
+                 List<String> fallbackModels) {
+        super(context, modelId, systemPrompt);
+        this.policy = policy;
+        // Calls are raced below the cache, so none of these agents use it themselves
+        AgentContext uncached = new AgentContext(context.client, context.asyncClient, context.executor,
+            context.nonBlocking, context.backoffPolicy, null, context.metrics);
+        this.primary = new BedrockAgent(uncached, modelId, systemPrompt) {
+            @Override
+            void finish(Span span, Throwable error) {
+                if (!unsettled.contains(span)) {
+                    super.finish(span, error);
+                }
+            }
+        };
+        this.fallbacks = fallbackModels.stream()
+            .map(model -> new BedrockAgent(uncached, model, systemPrompt))
+            .collect(Collectors.toList());
+    }
+
+    String describe() {
+        String fallbackModels = fallbacks.stream().map(BedrockAgent::getModelId).collect(Collectors.joining(", "));
+        return (policy != null ? "hedge " + policy.describe() : "no hedging")
+            + (fallbacks.isEmpty() ? "" : "; fallback " + fallbackModels);
+    }
+
+    @Override
+    CompletableFuture<String> invoke(Prompt userInput, Span span) {
+        Race race = new Race(userInput, span, false);
+        race.start();
+        return race.result;
+    }
+
+    @Override
+    ChunkPublisher stream(Prompt userInput, Span span) {
+        Race race = new Race(userInput, span, true);
+        race.start();
+        return race.output;
+    }
+
+    /**
+     * The calls made for one stage invocation. Settled by the first call to
+     * succeed (or, streaming, to produce a chunk), or by the last one to fail.
+     */
+    private final class Race {
+        final Prompt userInput;
+        final Span stageSpan;
+        final boolean streaming;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final ChunkPublisher output = new ChunkPublisher();
+        // Completed by the hedge delay, or cancelled once no hedge is wanted
+        final CompletableFuture<Void> hedgeTimer = new CompletableFuture<>();
+
+        private final List<Span> running = new ArrayList<>();
+        private final Set<String> triedModels = new HashSet<>();
+        private Span winner;
+        private boolean hedgeAllowed;
+        private boolean settled;
+
+        Race(Prompt userInput, Span stageSpan, boolean streaming) {
+            this.userInput = userInput;
+            this.stageSpan = stageSpan;
+            this.streaming = streaming;
+        }
+
+        void start() {
+            hedgeAllowed = policy != null;
+            unsettled.add(stageSpan);
+            launch(primary, stageSpan);
+            if (policy != null) {
+                long delay = policy.delayFor(getModelId(), streaming).toNanos();
+                // Unlike a delayed executor's task, a timeout is removed from the timer queue when cancelled
+                hedgeTimer.completeOnTimeout(null, delay, TimeUnit.NANOSECONDS).thenRunAsync(this::hedge, executor);
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (!hedgeAllowed || winner != null || settled) {
+                    return;
+                }
+                hedgeAllowed = false;
+            }
+            if (!policy.tryHedge()) {
+                return;
+            }
+            BedrockAgent target = nextFallback();
+            metrics.recordHedge(stageSpan.name, "launched");
+            launch(target != null ? target : primary, ":hedge");
+        }
+
+        private void launch(BedrockAgent agent, String suffix) {
+            launch(agent, new Span(stageSpan.traceId, stageSpan.parentSpanId, stageSpan.name + suffix,
+                agent.getModelId()));
+        }
+
+        private void launch(BedrockAgent agent, Span span) {
+            span.abortable = true;
+            synchronized (this) {
+                running.add(span);
+                triedModels.add(agent.getModelId());
+            }
+            if (streaming) {
+                follow(span, agent.stream(userInput, span));
+            } else {
+                agent.invoke(userInput, span).whenComplete((text, error) -> {
+                    if (error == null) {
+                        if (claim(span)) {
+                            finishCall(span, null);
+                            settle(null);
+                            result.complete(text);
+                        }
+                    } else {
+                        finishCall(span, error);
+                        failed(span, error);
+                    }
+                });
+            }
+        }
+
+        private void follow(Span span, ChunkPublisher source) {
+            source.subscribe(new Flow.Subscriber<String>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(String chunk) {
+                    if (claim(span)) {
+                        output.emit(chunk);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    failed(span, error);
+                }
+
+                @Override
+                public void onComplete() {
+                    if (claim(span)) {
+                        settle(null);
+                        output.complete();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Makes the span the winner if there is none yet and cancels the others.
+         *
+         * @return whether the span is the winner
+         */
+        private boolean claim(Span span) {
+            List<Span> losers;
+            synchronized (this) {
+                if (winner != null || settled) {
+                    return winner == span;
+                }
+                winner = span;
+                running.remove(span);
+                losers = new ArrayList<>(running);
+                running.clear();
+            }
+            hedgeTimer.cancel(false);
+            if (losers.contains(stageSpan)) {
+                stageSpan.endedBeforeStage = true;
+            }
+            if (span != stageSpan) {
+                stageSpan.answeredBy = span;
+                if (span.name.endsWith(":hedge")) {
+                    metrics.recordHedge(stageSpan.name, "won");
+                }
+            }
+            // Losers are recorded now, so the stage's spans are complete when its output is
+            for (Span loser : losers) {
+                loser.cancel();
+                finishCall(loser, new CancellationException("Superseded by " + span.name + " on " + span.modelId));
+            }
+            return true;
+        }
+
+        private void failed(Span span, Throwable error) {
+            BedrockAgent next = null;
+            boolean over;
+            synchronized (this) {
+                if (winner == span) {
+                    // A stream that fails after its first chunk cannot be replaced
+                    settled = true;
+                } else if (winner != null || settled || !running.remove(span)) {
+                    return;
+                } else if (running.isEmpty()) {
+                    hedgeAllowed = false;
+                    next = nextFallback();
+                    settled = next == null;
+                }
+                over = settled;
+            }
+            if (span == stageSpan && !over) {
+                // The stage carries on without its first call, whose failure still counts against its model
+                stageSpan.endedBeforeStage = true;
+                ModelHealth.forModel(stageSpan.modelId).recordFailure();
+            }
+            if (next != null) {
+                hedgeTimer.cancel(false);
+                metrics.recordHedge(stageSpan.name, "fallback");
+                launch(next, ":fallback");
+            } else if (over) {
+                hedgeTimer.cancel(false);
+                settle(error);
+                if (streaming) {
+                    output.fail(error);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            }
+        }
+
+        /**
+         * Records a call's span, except the stage's own, which waits for the race to settle.
+         */
+        private void finishCall(Span span, Throwable error) {
+            if (span != stageSpan) {
+                finish(span, error);
+            }
+        }
+
+        /**
+         * Records the stage's span with the stage's outcome, before the result is published.
+         */
+        private void settle(Throwable error) {
+            unsettled.remove(stageSpan);
+            finish(stageSpan, error);
+        }
+
+        /**
+         * The best-ranked fallback whose model has not been tried in this race.
+         */
+        private BedrockAgent nextFallback() {
+            Set<String> tried;
+            synchronized (this) {
+                tried = new HashSet<>(triedModels);
+            }
+            return ModelHealth.rank(fallbacks).stream()
+                .filter(agent -> !tried.contains(agent.getModelId()))
+                .findFirst().orElse(null);
+        }
+    }
+}
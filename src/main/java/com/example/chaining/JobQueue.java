@@ -0,0 +1,87 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Pipeline jobs shared by a fleet of worker processes.
+ *
+ * A worker claims a job by leasing it. The lease is held for as long as the
+ * worker keeps calling heartbeat(); once a worker's heartbeats lapse, the next
+ * claim by any worker returns its jobs to the queue. Each job has a checkpoint
+ * directory that outlives its leases, so the worker that picks up a reclaimed
+ * job resumes from the stages already completed instead of starting over.
+ *
+ * Delivery is at least once: a worker that stalls past its lease may finish a
+ * job that has been reassigned, and only the first result is kept.
+ */
+interface JobQueue extends AutoCloseable {
+
+    /**
+     * One claimed job.
+     */
+    interface Lease {
+        String id();
+
+        String request();
+
+        /**
+         * Where the job's stages are checkpointed, shared by every lease of the job.
+         */
+        Path checkpointDirectory();
+
+        /**
+         * False once the lease has been lost to a reclaim; the job is then someone else's.
+         */
+        boolean isHeld();
+
+        /**
+         * Records the job's result and ends the lease.
+         *
+         * @return false if the lease had been lost, in which case the result is dropped
+         */
+        boolean complete(ObjectNode result) throws IOException;
+
+        /**
+         * Ends the lease without a result, returning the job to the queue.
+         */
+        void release() throws IOException;
+    }
+
+    /**
+     * @return false if a job with the id is already queued, running or done
+     */
+    boolean enqueue(String id, String request) throws IOException;
+
+    /**
+     * Reclaims the jobs of workers whose heartbeats have lapsed, then leases the
+     * oldest queued job to this worker.
+     *
+     * @return null if no job is queued
+     */
+    Lease claim() throws IOException;
+
+    /**
+     * Renews every lease this worker holds.
+     */
+    void heartbeat() throws IOException;
+
+    /**
+     * Workers whose heartbeats are current, this one included.
+     */
+    int liveWorkers() throws IOException;
+
+    /**
+     * True if no job is queued or leased by any worker.
+     */
+    boolean isDrained() throws IOException;
+
+    /**
+     * Deregisters the worker. Leases it still holds can be reclaimed at once, as if
+     * it had died.
+     */
+    @Override
+    void close() throws IOException;
+}
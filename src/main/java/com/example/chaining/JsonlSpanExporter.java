@@ -0,0 +1,94 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends every finished span to a JSON lines file, one object per model call,
+ * for offline analysis (e.g. joining on trace_id to rebuild a pipeline run).
+ * Durations are in milliseconds; measurements that were not observed are omitted.
+ */
+class JsonlSpanExporter implements MetricsExporter {
+    private final BufferedWriter writer;
+
+    JsonlSpanExporter(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void onSpan(Span span) {
+        try {
+            synchronized (writer) {
+                try (JsonGenerator json = ModelCodec.JSON.createGenerator(writer)
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                    json.writeStartObject();
+                    json.writeStringField("trace_id", span.traceId);
+                    json.writeStringField("span_id", span.spanId);
+                    if (span.parentSpanId != null) {
+                        json.writeStringField("parent_span_id", span.parentSpanId);
+                    }
+                    json.writeStringField("name", span.name);
+                    json.writeStringField("model", span.modelId);
+                    json.writeNumberField("start_epoch_ms", span.startEpochMillis);
+                    json.writeStringField("status", span.status);
+                    if (span.errorType != null) {
+                        json.writeStringField("error_type", span.errorType);
+                    }
+                    Span answeredBy = span.answeredBy;
+                    if (answeredBy != null) {
+                        json.writeStringField("answered_by", answeredBy.spanId);
+                    }
+                    json.writeStringField("cache", span.cache);
+                    json.writeNumberField("attempts", span.attempts);
+                    json.writeNumberField("throttles", span.throttles);
+                    writeMillis(json, "duration_ms", span.durationNanos);
+                    writeMillis(json, "limiter_wait_ms", span.limiterWaitNanos);
+                    writeMillis(json, "backoff_ms", span.backoffNanos);
+                    writeMillis(json, "queue_wait_ms", span.queueWaitNanos);
+                    writeMillis(json, "encode_ms", span.encodeNanos);
+                    writeMillis(json, "sdk_ms", span.sdkNanos);
+                    writeMillis(json, "ttfb_ms", span.timeToFirstByteNanos);
+                    writeMillis(json, "ttft_ms", span.timeToFirstTokenNanos);
+                    writeMillis(json, "decode_ms", span.decodeNanos);
+                    if (span.inputTokens >= 0) {
+                        json.writeNumberField("input_tokens", span.inputTokens);
+                    }
+                    if (span.outputTokens >= 0) {
+                        json.writeNumberField("output_tokens", span.outputTokens);
+                    }
+                    json.writeNumberField("request_bytes", span.requestBytes);
+                    json.writeNumberField("response_bytes", span.responseBytes);
+                    json.writeEndObject();
+                }
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.printf("Failed to export span %s: %s%n", span.spanId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    private static void writeMillis(JsonGenerator json, String field, long nanos) throws IOException {
+        if (nanos >= 0) {
+            json.writeNumberField(field, Math.round(nanos / 1_000.0) / 1_000.0);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.chaining;
+
+import java.io.IOException;
+
+/**
+ * Destination for pipeline telemetry. Exporters either receive every finished
+ * span as it is recorded, or read the aggregated histograms from
+ * PipelineMetrics on their own schedule (for example when scraped).
+ */
+interface MetricsExporter extends AutoCloseable {
+
+    /**
+     * Called on the thread that finished the call; implementations must not block for long.
+     */
+    default void onSpan(Span span) {
+    }
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,622 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Local stand-in for the Bedrock Runtime API, for load and latency testing
+ * without AWS.
+ *
+ * Serves POST /model/{modelId}/invoke and /model/{modelId}/invoke-with-response-stream
+ * with the Claude, Titan and Nova response shapes, including usage fields and,
+ * for streaming, the binary application/vnd.amazon.eventstream framing the SDK
+ * decodes. Point a client at {@link #endpoint()} with endpointOverride and any
+ * static credentials; requests are not signature-checked.
+ *
+ * Responses are delayed on a small scheduler rather than by sleeping a thread
+ * per request, so one process can hold thousands of slow calls open. Random
+ * choices come from a per-request generator seeded with (seed, arrival index),
+ * so a run with the same seed and arrival order sees the same latencies and faults.
+ */
+class MockBedrockServer implements AutoCloseable {
+    private static final String EVENT_STREAM = "application/vnd.amazon.eventstream";
+    private static final String[] WORDS = {
+        "the", "game", "loop", "renders", "each", "frame", "while", "input",
+        "events", "update", "player", "state", "and", "score", "collisions", "are"
+    };
+
+    private final Behavior behavior;
+    private final HttpServer server;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AtomicLong arrivals = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    /**
+     * What the server does with each request.
+     */
+    static class Behavior {
+        public final Latency firstTokenLatency;
+        public final double tokensPerSecond;
+        public final int outputTokens;
+        public final int tokensPerChunk;
+        public final double throttleRate;
+        public final int maxConcurrent;
+        public final double errorRate;
+        public final long seed;
+
+        /**
+         * @param tokensPerSecond generation speed after the first token; 0 sends the whole response at once
+         * @param throttleRate    fraction of requests rejected with ThrottlingException
+         * @param maxConcurrent   requests beyond this many in flight are throttled; 0 for no cap
+         * @param errorRate       fraction of requests failed with InternalServerException
+         */
+        Behavior(Latency firstTokenLatency, double tokensPerSecond, int outputTokens, int tokensPerChunk,
+                 double throttleRate, int maxConcurrent, double errorRate, long seed) {
+            this.firstTokenLatency = firstTokenLatency;
+            this.tokensPerSecond = tokensPerSecond;
+            this.outputTokens = Math.max(1, outputTokens);
+            this.tokensPerChunk = Math.max(1, tokensPerChunk);
+            this.throttleRate = throttleRate;
+            this.maxConcurrent = maxConcurrent;
+            this.errorRate = errorRate;
+            this.seed = seed;
+        }
+
+        String describe() {
+            return String.format("first token %s, %s, %d output tokens, throttle %.1f%%%s, errors %.1f%%",
+                firstTokenLatency, tokensPerSecond > 0 ? tokensPerSecond + " tokens/s" : "instant generation",
+                outputTokens, throttleRate * 100, maxConcurrent > 0 ? " (cap " + maxConcurrent + " in flight)" : "",
+                errorRate * 100);
+        }
+    }
+
+    /**
+     * Latency distribution in milliseconds: "250" or "fixed:250", "uniform:100-400",
+     * or "lognormal:400:0.5" (median and sigma, for a realistic long tail).
+     */
+    static class Latency {
+        private final String spec;
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private Latency(String spec, String kind, double a, double b) {
+            this.spec = spec;
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static Latency parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            try {
+                switch (parts.length == 1 ? "fixed" : parts[0]) {
+                    case "fixed":
+                        return new Latency(spec, "fixed", Double.parseDouble(parts[parts.length - 1]), 0);
+                    case "uniform": {
+                        String[] range = parts[1].split("-");
+                        return new Latency(spec, "uniform", Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+                    }
+                    case "lognormal":
+                        return new Latency(spec, "lognormal", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // Fall through to the error below with the original spec
+            }
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+        }
+
+        long sampleMillis(SplittableRandom random) {
+            double millis;
+            switch (kind) {
+                case "uniform":
+                    millis = a + random.nextDouble() * (b - a);
+                    break;
+                case "lognormal":
+                    millis = a * Math.exp(b * random.nextGaussian());
+                    break;
+                default:
+                    millis = a;
+            }
+            return Math.max(0, Math.round(millis));
+        }
+
+        @Override
+        public String toString() {
+            return spec + " ms";
+        }
+    }
+
+    private MockBedrockServer(int port, Behavior behavior) throws IOException {
+        this.behavior = behavior;
+        this.scheduler = new ScheduledThreadPoolExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "mock-bedrock");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        server.createContext("/model/", this::handle);
+        server.setExecutor(scheduler);
+        server.start();
+    }
+
+    /**
+     * @param port 0 for an ephemeral port
+     */
+    static MockBedrockServer start(int port, Behavior behavior) throws IOException {
+        return new MockBedrockServer(port, behavior);
+    }
+
+    URI endpoint() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public void printSummary() {
+        System.out.println("\nMOCK BEDROCK SERVER");
+        System.out.println("-".repeat(50));
+        System.out.printf("%d requests: %d served, %d throttled, %d failed; peak %d in flight%n",
+            arrivals.get(), served.sum(), throttled.sum(), failed.sum(), peakInFlight.get());
+        System.out.println("=".repeat(50));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long arrival = arrivals.getAndIncrement();
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+
+        // Path is /model/{url-encoded model id}/{operation}
+        String[] path = exchange.getRequestURI().getRawPath().split("/");
+        String modelId = path.length == 4 ? URLDecoder.decode(path[2], StandardCharsets.UTF_8) : "";
+        boolean streaming = path.length == 4 && "invoke-with-response-stream".equals(path[3]);
+        if (!"POST".equals(exchange.getRequestMethod()) || path.length != 4
+                || !streaming && !"invoke".equals(path[3])) {
+            sendError(exchange, 404, "UnknownOperationException", "No such operation");
+            return;
+        }
+        Family family = Family.of(modelId);
+        if (family == null) {
+            sendError(exchange, 400, "ValidationException", "The provided model identifier is invalid.");
+            return;
+        }
+
+        SplittableRandom random = new SplittableRandom(behavior.seed * 0x9E3779B97F4A7C15L + arrival);
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+        if (behavior.maxConcurrent > 0 && current > behavior.maxConcurrent
+                || random.nextDouble() < behavior.throttleRate) {
+            inFlight.decrementAndGet();
+            throttled.increment();
+            sendError(exchange, 429, "ThrottlingException", "Too many requests, please wait before trying again.");
+            return;
+        }
+        if (random.nextDouble() < behavior.errorRate) {
+            // Failures still take a while, like a real model timing out partway through
+            long delay = behavior.firstTokenLatency.sampleMillis(random);
+            scheduler.schedule(() -> {
+                inFlight.decrementAndGet();
+                failed.increment();
+                sendError(exchange, 500, "InternalServerException", "The server encountered an internal error.");
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        Reply reply = new Reply(family, modelId, (body.length + 3) / 4, behavior.outputTokens,
+            behavior.firstTokenLatency.sampleMillis(random));
+        if (streaming) {
+            scheduler.schedule(() -> startStream(exchange, reply), reply.firstTokenMillis, TimeUnit.MILLISECONDS);
+        } else {
+            long generation = behavior.tokensPerSecond > 0
+                ? Math.round(behavior.outputTokens * 1000.0 / behavior.tokensPerSecond) : 0;
+            scheduler.schedule(() -> sendInvokeResponse(exchange, reply),
+                reply.firstTokenMillis + generation, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendInvokeResponse(HttpExchange exchange, Reply reply) {
+        try {
+            byte[] json = reply.family.response(reply, reply.text(0, reply.outputTokens));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("X-Amzn-Bedrock-Input-Token-Count", String.valueOf(reply.inputTokens));
+            exchange.getResponseHeaders().set("X-Amzn-Bedrock-Output-Token-Count", String.valueOf(reply.outputTokens));
+            exchange.getResponseHeaders().set("X-Amzn-Bedrock-Invocation-Latency", String.valueOf(reply.elapsedMillis()));
+            exchange.sendResponseHeaders(200, json.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(json);
+            }
+            served.increment();
+        } catch (IOException e) {
+            // Client went away; nothing to report back to
+            exchange.close();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void startStream(HttpExchange exchange, Reply reply) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", EVENT_STREAM);
+            exchange.getResponseHeaders().set("X-Amzn-Bedrock-Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            List<byte[]> events = reply.family.streamEvents(reply, behavior.tokensPerChunk);
+            writeEvents(exchange, events, 0);
+        } catch (IOException e) {
+            abortStream(exchange);
+        }
+    }
+
+    /**
+     * Writes the next event and schedules the one after it tokensPerChunk /
+     * tokensPerSecond later; with no token rate the rest are written at once.
+     */
+    private void writeEvents(HttpExchange exchange, List<byte[]> events, int next) {
+        try {
+            OutputStream out = exchange.getResponseBody();
+            int i = next;
+            out.write(frame(events.get(i++)));
+            out.flush();
+            long interval = behavior.tokensPerSecond > 0
+                ? Math.round(behavior.tokensPerChunk * 1000.0 / behavior.tokensPerSecond) : 0;
+            if (i < events.size() && interval > 0) {
+                int resume = i;
+                scheduler.schedule(() -> writeEvents(exchange, events, resume), interval, TimeUnit.MILLISECONDS);
+                return;
+            }
+            while (i < events.size()) {
+                out.write(frame(events.get(i++)));
+            }
+            out.close();
+            served.increment();
+            inFlight.decrementAndGet();
+        } catch (IOException e) {
+            abortStream(exchange);
+        }
+    }
+
+    private void abortStream(HttpExchange exchange) {
+        inFlight.decrementAndGet();
+        exchange.close();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String errorType, String message) {
+        try {
+            byte[] json = ("{\"message\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("x-amzn-ErrorType", errorType);
+            exchange.sendResponseHeaders(status, json.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(json);
+            }
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Wraps one model chunk in an event-stream message: prelude (total length,
+     * headers length, prelude CRC32), string headers, a {"bytes": base64} payload
+     * and a CRC32 of the whole message.
+     */
+    static byte[] frame(byte[] chunk) {
+        byte[] headers = eventHeaders();
+        byte[] payload = ("{\"bytes\":\"" + Base64.getEncoder().encodeToString(chunk) + "\"}")
+            .getBytes(StandardCharsets.US_ASCII);
+        int total = 12 + headers.length + payload.length + 4;
+        ByteBuffer message = ByteBuffer.allocate(total);
+        message.putInt(total).putInt(headers.length);
+        message.putInt(crc32(message.array(), 8));
+        message.put(headers).put(payload);
+        message.putInt(crc32(message.array(), total - 4));
+        return message.array();
+    }
+
+    private static byte[] eventHeaders() {
+        ByteBuffer headers = ByteBuffer.allocate(128);
+        stringHeader(headers, ":event-type", "chunk");
+        stringHeader(headers, ":content-type", "application/json");
+        stringHeader(headers, ":message-type", "event");
+        byte[] bytes = new byte[headers.position()];
+        headers.flip().get(bytes);
+        return bytes;
+    }
+
+    private static void stringHeader(ByteBuffer headers, String name, String value) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        byte[] valueBytes = value.getBytes(StandardCharsets.US_ASCII);
+        headers.put((byte) nameBytes.length).put(nameBytes);
+        headers.put((byte) 7).putShort((short) valueBytes.length).put(valueBytes);
+    }
+
+    private static int crc32(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * One successful call: generated text is deterministic filler of the requested token count.
+     */
+    private static class Reply {
+        final Family family;
+        final String modelId;
+        final int inputTokens;
+        final int outputTokens;
+        final long firstTokenMillis;
+        final long arrivedNanos = System.nanoTime();
+
+        Reply(Family family, String modelId, int inputTokens, int outputTokens, long firstTokenMillis) {
+            this.family = family;
+            this.modelId = modelId;
+            this.inputTokens = inputTokens;
+            this.outputTokens = outputTokens;
+            this.firstTokenMillis = firstTokenMillis;
+        }
+
+        String text(int fromToken, int toToken) {
+            StringBuilder text = new StringBuilder((toToken - fromToken) * 6);
+            for (int i = fromToken; i < toToken; i++) {
+                text.append(WORDS[i % WORDS.length]).append(i % 12 == 11 ? ".\n" : " ");
+            }
+            return text.toString();
+        }
+
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - arrivedNanos);
+        }
+
+        void writeInvocationMetrics(JsonGenerator json) throws IOException {
+            json.writeObjectFieldStart("amazon-bedrock-invocationMetrics");
+            json.writeNumberField("inputTokenCount", inputTokens);
+            json.writeNumberField("outputTokenCount", outputTokens);
+            json.writeNumberField("invocationLatency", elapsedMillis());
+            json.writeNumberField("firstByteLatency", firstTokenMillis);
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Response and stream-event shapes for each model family ModelCodec supports.
+     */
+    private enum Family {
+        CLAUDE {
+            @Override
+            void writeResponse(JsonGenerator json, Reply reply, String text) throws IOException {
+                json.writeStringField("id", "msg_mock");
+                json.writeStringField("type", "message");
+                json.writeStringField("role", "assistant");
+                json.writeStringField("model", reply.modelId);
+                json.writeArrayFieldStart("content");
+                json.writeStartObject();
+                json.writeStringField("type", "text");
+                json.writeStringField("text", text);
+                json.writeEndObject();
+                json.writeEndArray();
+                json.writeStringField("stop_reason", "end_turn");
+                json.writeObjectFieldStart("usage");
+                json.writeNumberField("input_tokens", reply.inputTokens);
+                json.writeNumberField("output_tokens", reply.outputTokens);
+                json.writeEndObject();
+            }
+
+            @Override
+            void writeStart(JsonGenerator json, Reply reply) throws IOException {
+                json.writeStringField("type", "message_start");
+                json.writeObjectFieldStart("message");
+                json.writeStringField("id", "msg_mock");
+                json.writeStringField("role", "assistant");
+                json.writeStringField("model", reply.modelId);
+                json.writeObjectFieldStart("usage");
+                json.writeNumberField("input_tokens", reply.inputTokens);
+                json.writeNumberField("output_tokens", 1);
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+
+            @Override
+            void writeDelta(JsonGenerator json, Reply reply, String text, int tokensSoFar) throws IOException {
+                json.writeStringField("type", "content_block_delta");
+                json.writeNumberField("index", 0);
+                json.writeObjectFieldStart("delta");
+                json.writeStringField("type", "text_delta");
+                json.writeStringField("text", text);
+                json.writeEndObject();
+            }
+
+            @Override
+            void writeStop(JsonGenerator json, Reply reply) throws IOException {
+                json.writeStringField("type", "message_stop");
+                reply.writeInvocationMetrics(json);
+            }
+        },
+        TITAN {
+            @Override
+            void writeResponse(JsonGenerator json, Reply reply, String text) throws IOException {
+                json.writeNumberField("inputTextTokenCount", reply.inputTokens);
+                json.writeArrayFieldStart("results");
+                json.writeStartObject();
+                json.writeNumberField("tokenCount", reply.outputTokens);
+                json.writeStringField("outputText", text);
+                json.writeStringField("completionReason", "FINISH");
+                json.writeEndObject();
+                json.writeEndArray();
+            }
+
+            @Override
+            void writeDelta(JsonGenerator json, Reply reply, String text, int tokensSoFar) throws IOException {
+                json.writeStringField("outputText", text);
+                json.writeNumberField("index", 0);
+                json.writeNumberField("totalOutputTextTokenCount", tokensSoFar);
+                json.writeNullField("completionReason");
+                json.writeNumberField("inputTextTokenCount", reply.inputTokens);
+            }
+
+            @Override
+            void writeStop(JsonGenerator json, Reply reply) throws IOException {
+                json.writeStringField("outputText", "");
+                json.writeNumberField("index", 0);
+                json.writeNumberField("totalOutputTextTokenCount", reply.outputTokens);
+                json.writeStringField("completionReason", "FINISH");
+                json.writeNumberField("inputTextTokenCount", reply.inputTokens);
+                reply.writeInvocationMetrics(json);
+            }
+        },
+        NOVA {
+            @Override
+            void writeResponse(JsonGenerator json, Reply reply, String text) throws IOException {
+                json.writeObjectFieldStart("output");
+                json.writeObjectFieldStart("message");
+                json.writeStringField("role", "assistant");
+                json.writeArrayFieldStart("content");
+                json.writeStartObject();
+                json.writeStringField("text", text);
+                json.writeEndObject();
+                json.writeEndArray();
+                json.writeEndObject();
+                json.writeEndObject();
+                json.writeStringField("stopReason", "end_turn");
+                json.writeObjectFieldStart("usage");
+                json.writeNumberField("inputTokens", reply.inputTokens);
+                json.writeNumberField("outputTokens", reply.outputTokens);
+                json.writeNumberField("totalTokens", reply.inputTokens + reply.outputTokens);
+                json.writeEndObject();
+            }
+
+            @Override
+            void writeStart(JsonGenerator json, Reply reply) throws IOException {
+                json.writeObjectFieldStart("messageStart");
+                json.writeStringField("role", "assistant");
+                json.writeEndObject();
+            }
+
+            @Override
+            void writeDelta(JsonGenerator json, Reply reply, String text, int tokensSoFar) throws IOException {
+                json.writeObjectFieldStart("contentBlockDelta");
+                json.writeObjectFieldStart("delta");
+                json.writeStringField("text", text);
+                json.writeEndObject();
+                json.writeNumberField("contentBlockIndex", 0);
+                json.writeEndObject();
+            }
+
+            @Override
+            void writeStop(JsonGenerator json, Reply reply) throws IOException {
+                json.writeObjectFieldStart("metadata");
+                json.writeObjectFieldStart("usage");
+                json.writeNumberField("inputTokens", reply.inputTokens);
+                json.writeNumberField("outputTokens", reply.outputTokens);
+                json.writeEndObject();
+                json.writeEndObject();
+                reply.writeInvocationMetrics(json);
+            }
+        };
+
+        static Family of(String modelId) {
+            if (modelId.contains("anthropic.claude")) {
+                return CLAUDE;
+            } else if (modelId.contains("amazon.titan")) {
+                return TITAN;
+            } else if (modelId.contains("amazon.nova")) {
+                return NOVA;
+            }
+            return null;
+        }
+
+        abstract void writeResponse(JsonGenerator json, Reply reply, String text) throws IOException;
+
+        /**
+         * Fields of the event sent before any content; families without one write nothing.
+         */
+        void writeStart(JsonGenerator json, Reply reply) throws IOException {
+        }
+
+        abstract void writeDelta(JsonGenerator json, Reply reply, String text, int tokensSoFar) throws IOException;
+
+        abstract void writeStop(JsonGenerator json, Reply reply) throws IOException;
+
+        byte[] response(Reply reply, String text) throws IOException {
+            return object(json -> writeResponse(json, reply, text));
+        }
+
+        List<byte[]> streamEvents(Reply reply, int tokensPerChunk) throws IOException {
+            List<byte[]> events = new ArrayList<>();
+            byte[] start = object(json -> writeStart(json, reply));
+            if (start.length > 2) {
+                events.add(start);
+            }
+            for (int from = 0; from < reply.outputTokens; from += tokensPerChunk) {
+                int to = Math.min(reply.outputTokens, from + tokensPerChunk);
+                String text = reply.text(from, to);
+                events.add(object(json -> writeDelta(json, reply, text, to)));
+            }
+            events.add(object(json -> writeStop(json, reply)));
+            return events;
+        }
+
+        private interface Fields {
+            void write(JsonGenerator json) throws IOException;
+        }
+
+        private static byte[] object(Fields fields) throws IOException {
+            ByteArrayBuilder out = new ByteArrayBuilder(256);
+            try (JsonGenerator json = ModelCodec.JSON.createGenerator(out)) {
+                json.writeStartObject();
+                fields.write(json);
+                json.writeEndObject();
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Runs the server on its own so separate pipeline processes can share it
+     * via BEDROCK_ENDPOINT. Usage: MockBedrockServer [port]
+     */
+    public static void main(String[] args) throws Exception {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        MockBedrockServer server = start(port, GamePipeline.mockBehavior(dotenv));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.printSummary();
+            server.close();
+        }));
+        System.out.printf("Mock Bedrock server listening on %s (%s)%n", server.endpoint(), server.behavior.describe());
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Request/response wire format for one Bedrock model family.
+ *
+ * A codec is chosen once when the agent is built instead of re-dispatching on
+ * the model id for every call. Implementations write request JSON straight to
+ * bytes with a streaming JsonGenerator and pull the fields they need (the text
+ * and the token usage) out of responses in a single streaming JsonParser pass,
+ * skipping everything else without building a tree.
+ */
+interface ModelCodec {
+    JsonFactory JSON = new JsonFactory();
+
+    /**
+     * Token usage Bedrock appends to the final event of every streamed response, whatever the model family.
+     */
+    Object[] STREAM_INPUT_TOKENS = {"amazon-bedrock-invocationMetrics", "inputTokenCount"};
+    Object[] STREAM_OUTPUT_TOKENS = {"amazon-bedrock-invocationMetrics", "outputTokenCount"};
+
+    /**
+     * Text and token usage decoded from a response or a streaming chunk.
+     * Token counts are -1 when the payload does not carry them.
+     */
+    class Decoded {
+        public final String text;
+        public final int inputTokens;
+        public final int outputTokens;
+
+        Decoded(String text, int inputTokens, int outputTokens) {
+            this.text = text;
+            this.inputTokens = inputTokens;
+            this.outputTokens = outputTokens;
+        }
+    }
+
+    /**
+     * @param userInput streamed into the body without being materialized as one String
+     */
+    byte[] encodeRequest(String systemPrompt, Prompt userInput, int maxTokens, double temperature) throws IOException;
+
+    default byte[] encodeRequest(String systemPrompt, String userInput, int maxTokens, double temperature)
+            throws IOException {
+        return encodeRequest(systemPrompt, Prompt.of(userInput), maxTokens, temperature);
+    }
+
+    /**
+     * @return the generated text (null if the response has no text content) and its usage
+     */
+    Decoded decodeResponse(byte[] body) throws IOException;
+
+    /**
+     * @return the text delta carried by a streaming chunk ("" for control events); the
+     *         final chunk also carries the usage of the whole response
+     */
+    Decoded decodeChunk(byte[] chunk) throws IOException;
+
+    static ModelCodec forModel(String modelId) {
+        if (modelId.contains("anthropic.claude")) {
+            return new ClaudeCodec();
+        } else if (modelId.contains("amazon.titan")) {
+            return new TitanCodec();
+        } else if (modelId.contains("amazon.nova")) {
+            return new NovaCodec();
+        }
+        throw new IllegalArgumentException("Unsupported model: " + modelId);
+    }
+
+    static Decoded decode(byte[] json, Object[] textPath, Object[] inputTokensPath, Object[] outputTokensPath)
+            throws IOException {
+        Object[] values = extract(json, textPath, inputTokensPath, outputTokensPath);
+        return new Decoded(values[0] instanceof String ? (String) values[0] : null,
+            values[1] instanceof Number ? ((Number) values[1]).intValue() : -1,
+            values[2] instanceof Number ? ((Number) values[2]).intValue() : -1);
+    }
+
+    static Decoded decodeStreamChunk(byte[] chunk, Object[] textPath) throws IOException {
+        Decoded decoded = decode(chunk, textPath, STREAM_INPUT_TOKENS, STREAM_OUTPUT_TOKENS);
+        return decoded.text != null ? decoded : new Decoded("", decoded.inputTokens, decoded.outputTokens);
+    }
+
+    /**
+     * Extracts the scalar at each path, such as ("content", 0, "text") where strings
+     * are object fields and integers are array indexes, in one pass over the
+     * document: a String for
+     * string values, a Number for numbers, null when the path is absent or ends at
+     * anything else. Subtrees no path leads into are skipped without being decoded.
+     */
+    static Object[] extract(byte[] json, Object[]... paths) throws IOException {
+        if (paths.length > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " paths per pass");
+        }
+        Object[] values = new Object[paths.length];
+        try (JsonParser parser = JSON.createParser(json)) {
+            parser.nextToken();
+            descend(parser, paths, 0, paths.length == Long.SIZE ? -1L : (1L << paths.length) - 1, values);
+        }
+        return values;
+    }
+
+    /**
+     * @param live bit i is set while the parser is still on a prefix of paths[i]
+     */
+    private static void descend(JsonParser parser, Object[][] paths, int depth, long live, Object[] values)
+            throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                long next = matching(paths, depth, live, parser.currentName());
+                parser.nextToken();
+                if (next == 0) {
+                    parser.skipChildren();
+                } else {
+                    descend(parser, paths, depth + 1, next, values);
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            for (int i = 0; parser.nextToken() != JsonToken.END_ARRAY; i++) {
+                long next = matching(paths, depth, live, i);
+                if (next == 0) {
+                    parser.skipChildren();
+                } else {
+                    descend(parser, paths, depth + 1, next, values);
+                }
+            }
+        } else {
+            for (long bits = live; bits != 0; bits &= bits - 1) {
+                int i = Long.numberOfTrailingZeros(bits);
+                if (paths[i].length == depth) {
+                    values[i] = token == JsonToken.VALUE_STRING ? parser.getText()
+                        : token.isNumeric() ? parser.getNumberValue() : null;
+                }
+            }
+        }
+    }
+
+    private static long matching(Object[][] paths, int depth, long live, Object key) {
+        long next = 0;
+        for (long bits = live; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            if (paths[i].length > depth && paths[i][depth].equals(key)) {
+                next |= 1L << i;
+            }
+        }
+        return next;
+    }
+}
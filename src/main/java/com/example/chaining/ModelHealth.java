@@ -0,0 +1,116 @@
+package com.example.chaining;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Recent latency and error rate of one model, shared by every BedrockAgent in the
+ * process, used to decide when a call is late enough to hedge and which fallback
+ * model to prefer.
+ *
+ * PipelineMetrics keeps all-time histograms; this keeps only the last WINDOW
+ * finished calls in a ring, so the figures follow a model that slows down or
+ * starts failing within a few dozen calls. Cancelled hedge losers are left out,
+ * as in PipelineMetrics: the time they had run when cancelled is shorter than
+ * their latency, and counting it would pull down the percentile that decides
+ * the next hedge, so each hedge would make further hedges more likely.
+ */
+class ModelHealth {
+    private static final int WINDOW = 200;
+    private static final Map<String, ModelHealth> MODELS = new ConcurrentHashMap<>();
+
+    // -1 marks a failed call (latencies) or a call without a streamed first token
+    private final long[] latencies = new long[WINDOW];
+    private final long[] firstTokens = new long[WINDOW];
+    private int next;
+    private int size;
+
+    static ModelHealth forModel(String modelId) {
+        return MODELS.computeIfAbsent(modelId, id -> new ModelHealth());
+    }
+
+    synchronized void record(Span span) {
+        if ("cancelled".equals(span.status)) {
+            return;
+        }
+        boolean answered = "success".equals(span.status);
+        add(answered ? span.durationNanos : -1, answered ? span.timeToFirstTokenNanos : -1);
+    }
+
+    /**
+     * Counts a failed call whose span is recorded later, with the outcome of the
+     * stage it was made for.
+     */
+    synchronized void recordFailure() {
+        add(-1, -1);
+    }
+
+    private void add(long latency, long firstToken) {
+        latencies[next] = latency;
+        firstTokens[next] = firstToken;
+        next = (next + 1) % WINDOW;
+        size = Math.min(size + 1, WINDOW);
+    }
+
+    /**
+     * The given percentile of recent call latency, or null if fewer than minSamples
+     * calls succeeded in the window.
+     */
+    Duration latency(double percentile, int minSamples) {
+        return percentile(latencies, percentile, minSamples);
+    }
+
+    /**
+     * As {@link #latency}, for time to first token of streamed calls.
+     */
+    Duration firstToken(double percentile, int minSamples) {
+        return percentile(firstTokens, percentile, minSamples);
+    }
+
+    synchronized double errorRate() {
+        if (size == 0) {
+            return 0;
+        }
+        long failures = Arrays.stream(latencies, 0, size).filter(latency -> latency < 0).count();
+        return (double) failures / size;
+    }
+
+    /**
+     * Expected time to a successful answer: median latency divided by the success
+     * rate, so a model that fails half its calls ranks like one twice as slow.
+     * Models with no successful calls in the window rank last.
+     */
+    double score() {
+        Duration median = latency(50, 1);
+        if (median == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return median.toNanos() / Math.max(0.05, 1 - errorRate());
+    }
+
+    /**
+     * The agents ordered by their model's current score, best first; agents whose
+     * models score alike keep their given order.
+     */
+    static List<BedrockAgent> rank(List<BedrockAgent> agents) {
+        Map<String, Double> scores = agents.stream().map(BedrockAgent::getModelId).distinct()
+            .collect(Collectors.toMap(id -> id, id -> forModel(id).score()));
+        return agents.stream()
+            .sorted(Comparator.comparingDouble(agent -> scores.get(agent.getModelId())))
+            .collect(Collectors.toList());
+    }
+
+    private synchronized Duration percentile(long[] samples, double percentile, int minSamples) {
+        long[] observed = Arrays.stream(samples, 0, size).filter(sample -> sample >= 0).sorted().toArray();
+        if (observed.length == 0 || observed.length < minSamples) {
+            return null;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * observed.length) - 1;
+        return Duration.ofNanos(observed[Math.max(0, Math.min(index, observed.length - 1))]);
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.chaining;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-model request and token budget, shared by every BedrockAgent in the process.
+ *
+ * Bedrock quotas are per model, per account, in both requests and tokens per
+ * minute. Each model gets two token buckets: one for requests and one for
+ * tokens, where a call is charged its estimated input tokens plus max_tokens.
+ * Callers reserve capacity up front and are told how long to wait, so no thread
+ * sleeps while waiting for budget.
+ *
+ * The refill rate adapts AIMD-style: each throttling response halves it (at most
+ * once per cooldown window, so a burst of 429s from calls already in flight
+ * counts once), and each success adds back a small fraction of the configured
+ * rate until the configured limit is reached again.
+ *
+ * With {@link #shareAcross}, the buckets, the adapted rate and a throttle count
+ * live in one small file per model instead, so all the worker processes on a
+ * machine draw from one budget and a throttle seen by any of them slows them all.
+ * Reservations and throttles read and write the file under a file lock; successes
+ * only count up in memory and are applied with the next reservation, so a call
+ * costs one locked read and write, not two. Every process must be configured
+ * with the same limits.
+ */
+class ModelRateLimiter {
+    private static final double MIN_RATE_FRACTION = 0.05;
+    private static final double INCREASE_FRACTION = 0.02;
+    private static final long DECREASE_COOLDOWN_NANOS = Duration.ofSeconds(1).toNanos();
+    // rateFraction, requestTokens, tokenTokens, lastRefill, lastDecrease, totalThrottles
+    private static final int STATE_BYTES = 48;
+
+    private static final Map<String, ModelRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+    private static final Map<String, double[]> MODEL_LIMITS = new ConcurrentHashMap<>();
+    private static volatile double defaultRequestsPerSecond = 5.0;
+    private static volatile double defaultTokensPerMinute = 200_000;
+    private static volatile Path sharedDirectory;
+
+    private final String modelId;
+    private final double maxRequestsPerSecond;
+    private final double maxTokensPerSecond;
+    private double rateFraction = 1.0;
+    private double requestTokens;
+    private double tokenTokens;
+    private long lastRefill;
+    private long lastDecrease;
+    private long throttleCount;
+    // Every process's throttles when shared, else this process's
+    private long totalThrottles;
+    // Successes not yet applied to the shared rate
+    private long pendingSuccesses;
+    private final Path stateFile;
+    private final ByteBuffer stateBuffer = ByteBuffer.allocate(STATE_BYTES);
+    private final byte[] loadedState = new byte[STATE_BYTES];
+    private FileChannel state;
+    private boolean stateFailed;
+
+    /**
+     * @param directory where the shared state lives; null to limit this process alone
+     */
+    ModelRateLimiter(String modelId, double requestsPerSecond, double tokensPerMinute, Path directory) {
+        this.modelId = modelId;
+        this.maxRequestsPerSecond = requestsPerSecond;
+        this.maxTokensPerSecond = tokensPerMinute / 60.0;
+        // Start full so the first calls of a run are not delayed
+        this.requestTokens = requestCapacity();
+        this.tokenTokens = tokenCapacity();
+        this.stateFile = directory == null ? null : directory.resolve(modelId.replaceAll("[^A-Za-z0-9._-]", "_"));
+        this.lastRefill = now();
+    }
+
+    /**
+     * Sets the limits applied to models without a specific override. Only affects
+     * limiters created after the call.
+     */
+    static void configureDefaults(double requestsPerSecond, double tokensPerMinute) {
+        defaultRequestsPerSecond = requestsPerSecond;
+        defaultTokensPerMinute = tokensPerMinute;
+    }
+
+    /**
+     * Coordinates each model's budget with every other process sharing the directory.
+     * Only affects limiters created after the call.
+     */
+    static void shareAcross(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        sharedDirectory = directory;
+    }
+
+    static void configureModel(String modelId, double requestsPerSecond, double tokensPerMinute) {
+        MODEL_LIMITS.put(modelId, new double[] {requestsPerSecond, tokensPerMinute});
+    }
+
+    /**
+     * Parses overrides of the form "modelId=rps:tpm,modelId=rps:tpm".
+     */
+    static void configureModels(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return;
+        }
+        for (String entry : spec.split(",")) {
+            int equals = entry.lastIndexOf('=');
+            String[] limits = equals < 0 ? new String[0] : entry.substring(equals + 1).split(":");
+            if (limits.length != 2) {
+                throw new IllegalArgumentException("Invalid model limit '" + entry + "', expected modelId=rps:tpm");
+            }
+            configureModel(entry.substring(0, equals).trim(),
+                Double.parseDouble(limits[0].trim()), Double.parseDouble(limits[1].trim()));
+        }
+    }
+
+    /**
+     * Every model's limiter created so far in this process.
+     */
+    static Collection<ModelRateLimiter> all() {
+        return LIMITERS.values();
+    }
+
+    static ModelRateLimiter forModel(String modelId) {
+        return LIMITERS.computeIfAbsent(modelId, id -> {
+            double[] limits = MODEL_LIMITS.get(id);
+            return limits != null
+                ? new ModelRateLimiter(id, limits[0], limits[1], sharedDirectory)
+                : new ModelRateLimiter(id, defaultRequestsPerSecond, defaultTokensPerMinute, sharedDirectory);
+        });
+    }
+
+    /**
+     * Rough input-token estimate (about four characters per token) plus the output budget.
+     */
+    static int estimateTokens(int promptChars, int maxOutputTokens) {
+        return promptChars / 4 + maxOutputTokens;
+    }
+
+    /**
+     * Reserves one request and the given number of tokens, returning how long the
+     * caller must wait before sending. The reservation is taken immediately, so
+     * concurrent callers queue up behind each other instead of all waking at once.
+     */
+    synchronized Duration reserve(int tokens) {
+        return coordinated(() -> {
+            refill();
+            // A single call larger than the bucket can never fit; charge at most one full bucket
+            double cost = Math.min(tokens, tokenCapacity());
+            requestTokens -= 1;
+            tokenTokens -= cost;
+
+            double requestWait = requestTokens < 0 ? -requestTokens / currentRequestRate() : 0;
+            double tokenWait = tokenTokens < 0 ? -tokenTokens / currentTokenRate() : 0;
+            return Duration.ofNanos((long) (Math.max(requestWait, tokenWait) * 1_000_000_000L));
+        });
+    }
+
+    synchronized void onSuccess() {
+        pendingSuccesses++;
+        if (stateFile == null || stateFailed) {
+            applySuccesses();
+        }
+    }
+
+    synchronized void onThrottle() {
+        throttleCount++;
+        coordinated(() -> {
+            totalThrottles++;
+            long now = now();
+            if (lastDecrease == 0 || now - lastDecrease >= DECREASE_COOLDOWN_NANOS) {
+                refill();
+                rateFraction = Math.max(MIN_RATE_FRACTION, rateFraction / 2);
+                lastDecrease = now;
+            }
+            return null;
+        });
+    }
+
+    synchronized double currentRequestRate() {
+        return maxRequestsPerSecond * rateFraction;
+    }
+
+    /**
+     * Throttling responses seen by this process.
+     */
+    synchronized long throttleCount() {
+        return throttleCount;
+    }
+
+    /**
+     * Throttling responses seen by every process sharing the budget; this process's
+     * alone when it is not shared.
+     */
+    synchronized long totalThrottleCount() {
+        return coordinated(() -> totalThrottles);
+    }
+
+    String modelId() {
+        return modelId;
+    }
+
+    /**
+     * Runs the operation on the shared state if there is one: loaded under the file
+     * lock, then written back before the lock is released unless it is unchanged.
+     * Pending successes are applied first. If the file cannot be used, this process
+     * falls back to limiting itself alone.
+     */
+    private <T> T coordinated(Supplier<T> operation) {
+        if (stateFile == null || stateFailed) {
+            applySuccesses();
+            return operation.get();
+        }
+        try {
+            if (state == null || !state.isOpen()) {
+                state = FileChannel.open(stateFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            FileLock lock = state.lock();
+            try {
+                ByteBuffer buffer = stateBuffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (state.read(buffer, buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                // A new file has no state yet; the first process to use it writes its own
+                boolean loaded = !buffer.hasRemaining();
+                if (loaded) {
+                    buffer.flip();
+                    buffer.get(loadedState).flip();
+                    rateFraction = buffer.getDouble();
+                    requestTokens = buffer.getDouble();
+                    tokenTokens = buffer.getDouble();
+                    lastRefill = buffer.getLong();
+                    lastDecrease = buffer.getLong();
+                    totalThrottles = buffer.getLong();
+                }
+                applySuccesses();
+                T result = operation.get();
+                buffer.clear();
+                buffer.putDouble(rateFraction).putDouble(requestTokens).putDouble(tokenTokens)
+                    .putLong(lastRefill).putLong(lastDecrease).putLong(totalThrottles).flip();
+                if (!loaded || !buffer.equals(ByteBuffer.wrap(loadedState))) {
+                    while (buffer.hasRemaining()) {
+                        state.write(buffer, buffer.position());
+                    }
+                }
+                return result;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            System.err.printf("Shared rate limit for %s unavailable, limiting this process alone: %s%n",
+                modelId, e.getMessage());
+            stateFailed = true;
+            applySuccesses();
+            return operation.get();
+        }
+    }
+
+    private void applySuccesses() {
+        rateFraction = Math.min(1.0, rateFraction + pendingSuccesses * INCREASE_FRACTION);
+        pendingSuccesses = 0;
+    }
+
+    /**
+     * Nanoseconds on a clock every process agrees on when the state is shared.
+     */
+    private long now() {
+        if (stateFile == null) {
+            return System.nanoTime();
+        }
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private void refill() {
+        long now = now();
+        double seconds = (now - lastRefill) / 1_000_000_000.0;
+        lastRefill = now;
+        requestTokens = Math.min(requestCapacity(), requestTokens + seconds * currentRequestRate());
+        tokenTokens = Math.min(tokenCapacity(), tokenTokens + seconds * currentTokenRate());
+    }
+
+    private double currentTokenRate() {
+        return maxTokensPerSecond * rateFraction;
+    }
+
+    private double requestCapacity() {
+        // Allow a one-second burst, and always at least one request
+        return Math.max(1.0, maxRequestsPerSecond);
+    }
+
+    private double tokenCapacity() {
+        // Allow a one-minute burst, matching how Bedrock expresses token quotas
+        return maxTokensPerSecond * 60.0;
+    }
+}
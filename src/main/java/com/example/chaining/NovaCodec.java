@@ -0,0 +1,62 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+
+/**
+ * Amazon Nova models (messages format with required inferenceConfig).
+ */
+class NovaCodec implements ModelCodec {
+    // Nova returns response in output.message.content[0].text structure
+    private static final Object[] TEXT = {"output", "message", "content", 0, "text"};
+    private static final Object[] INPUT_TOKENS = {"usage", "inputTokens"};
+    private static final Object[] OUTPUT_TOKENS = {"usage", "outputTokens"};
+    private static final Object[] DELTA_TEXT = {"contentBlockDelta", "delta", "text"};
+
+    @Override
+    public byte[] encodeRequest(String systemPrompt, Prompt userInput, int maxTokens, double temperature)
+            throws IOException {
+        ByteArrayBuilder out = new ByteArrayBuilder((int) userInput.size() + systemPrompt.length() + 128);
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("messages");
+            json.writeStartObject();
+            json.writeStringField("role", "user");
+            json.writeArrayFieldStart("content");
+            json.writeStartObject();
+            json.writeFieldName("text");
+            userInput.writeJsonString(json);
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+
+            json.writeObjectFieldStart("inferenceConfig");
+            json.writeNumberField("maxTokens", maxTokens);
+            json.writeNumberField("temperature", temperature);
+            json.writeEndObject();
+
+            if (!systemPrompt.isEmpty()) {
+                json.writeArrayFieldStart("system");
+                json.writeStartObject();
+                json.writeStringField("text", systemPrompt);
+                json.writeEndObject();
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Decoded decodeResponse(byte[] body) throws IOException {
+        return ModelCodec.decode(body, TEXT, INPUT_TOKENS, OUTPUT_TOKENS);
+    }
+
+    @Override
+    public Decoded decodeChunk(byte[] chunk) throws IOException {
+        return ModelCodec.decodeStreamChunk(chunk, DELTA_TEXT);
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.chaining;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters for model calls, fed by finished
+ * spans and by the SDK's own per-request metrics.
+ *
+ * Latencies go into HdrHistograms (microsecond resolution, three significant
+ * digits) so percentiles stay exact at any call volume without keeping samples.
+ * Series are keyed by their Prometheus name and label set, e.g.
+ * {@code bedrock_call_duration_seconds{model="..."}}, which is also the form
+ * {@link #writePrometheus} exposes them in.
+ */
+class PipelineMetrics implements AutoCloseable {
+    static final String CALL_DURATION = "bedrock_call_duration_seconds";
+    static final String TIME_TO_FIRST_BYTE = "bedrock_time_to_first_byte_seconds";
+    static final String TIME_TO_FIRST_TOKEN = "bedrock_time_to_first_token_seconds";
+    static final String LIMITER_WAIT = "bedrock_rate_limiter_wait_seconds";
+    static final String QUEUE_WAIT = "bedrock_executor_queue_wait_seconds";
+    static final String SDK_OVERHEAD = "bedrock_sdk_marshal_sign_seconds";
+    static final String CODEC = "bedrock_codec_seconds";
+    static final String POOL_ACQUIRE = "bedrock_http_pool_acquire_seconds";
+    static final String STAGE_DURATION = "pipeline_stage_duration_seconds";
+    static final String CALLS = "bedrock_calls_total";
+    static final String INPUT_TOKENS = "bedrock_input_tokens_total";
+    static final String OUTPUT_TOKENS = "bedrock_output_tokens_total";
+    static final String REQUEST_BYTES = "bedrock_request_bytes_total";
+    static final String RESPONSE_BYTES = "bedrock_response_bytes_total";
+    static final String RETRIES = "bedrock_retries_total";
+    static final String THROTTLES = "bedrock_throttles_total";
+    static final String HEDGES = "pipeline_hedges_total";
+    static final String LEASED_CONNECTIONS = "bedrock_http_leased_connections";
+    static final String PENDING_ACQUIRES = "bedrock_http_pending_acquires";
+
+    private static final Map<String, String> HELP = Map.ofEntries(
+        Map.entry(CALL_DURATION, "Model call latency including rate-limit waits and retries"),
+        Map.entry(TIME_TO_FIRST_BYTE, "Request sent to response headers received, last attempt"),
+        Map.entry(TIME_TO_FIRST_TOKEN, "Call start to first text chunk"),
+        Map.entry(LIMITER_WAIT, "Time spent waiting for the per-model rate limiter"),
+        Map.entry(QUEUE_WAIT, "Time calls and response parsing spent queued on the agent executor"),
+        Map.entry(SDK_OVERHEAD, "SDK marshalling and request signing, last attempt"),
+        Map.entry(CODEC, "Request encoding plus response decoding"),
+        Map.entry(POOL_ACQUIRE, "Time to acquire an HTTP connection from the client pool"),
+        Map.entry(STAGE_DURATION, "Stage latency, including cache hits"),
+        Map.entry(CALLS, "Finished calls by outcome"),
+        Map.entry(INPUT_TOKENS, "Input tokens reported by the model"),
+        Map.entry(OUTPUT_TOKENS, "Output tokens reported by the model"),
+        Map.entry(REQUEST_BYTES, "Request body bytes sent"),
+        Map.entry(RESPONSE_BYTES, "Response body bytes received"),
+        Map.entry(RETRIES, "Attempts beyond the first"),
+        Map.entry(THROTTLES, "Attempts rejected by throttling"),
+        Map.entry(HEDGES, "Duplicate and fallback calls made by hedged stages, by outcome"),
+        Map.entry(LEASED_CONNECTIONS, "HTTP connections in use at the last request"),
+        Map.entry(PENDING_ACQUIRES, "Requests waiting for an HTTP connection at the last request"));
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicLong> gauges = new ConcurrentSkipListMap<>();
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    void record(Span span) {
+        String model = labels("model", span.modelId);
+        count(CALLS, labels("model", span.modelId, "status", span.status, "cache", span.cache), 1);
+        observe(STAGE_DURATION, labels("stage", span.name), span.durationNanos);
+        // Cache hits say nothing about the model, so they stay out of the model series,
+        // and a cancelled hedge loser's duration is when it was cancelled, not a latency;
+        // nor is the duration of a stage span whose own call ended before the stage did
+        if (span.calledModel() && !"cancelled".equals(span.status) && !span.endedBeforeStage) {
+            observe(CALL_DURATION, model, span.durationNanos);
+            observe(TIME_TO_FIRST_BYTE, model, span.timeToFirstByteNanos);
+            observe(TIME_TO_FIRST_TOKEN, model, span.timeToFirstTokenNanos);
+        }
+        if (span.calledModel()) {
+            observe(LIMITER_WAIT, model, span.limiterWaitNanos);
+            observe(QUEUE_WAIT, model, span.queueWaitNanos);
+            observe(SDK_OVERHEAD, model, span.sdkNanos);
+            observe(CODEC, model, span.encodeNanos + span.decodeNanos);
+            count(INPUT_TOKENS, model, Math.max(0, span.inputTokens));
+            count(OUTPUT_TOKENS, model, Math.max(0, span.outputTokens));
+            count(REQUEST_BYTES, model, span.requestBytes);
+            count(RESPONSE_BYTES, model, span.responseBytes);
+            count(RETRIES, model, Math.max(0, span.attempts - 1));
+            count(THROTTLES, model, span.throttles);
+        }
+        for (MetricsExporter exporter : exporters) {
+            exporter.onSpan(span);
+        }
+    }
+
+    /**
+     * @param outcome "launched" for a duplicate sent, "won" when it answered first,
+     *                "fallback" for a call made after the others failed
+     */
+    void recordHedge(String stage, String outcome) {
+        count(HEDGES, labels("stage", stage, "outcome", outcome), 1);
+    }
+
+    /**
+     * Receives the SDK's per-request metrics; only the HTTP connection pool figures
+     * are kept, as the agent measures everything else on the span itself.
+     */
+    MetricPublisher sdkPublisher() {
+        return new MetricPublisher() {
+            @Override
+            public void publish(MetricCollection metrics) {
+                recordHttpMetrics(metrics);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private void recordHttpMetrics(MetricCollection metrics) {
+        List<String> clientNames = metrics.metricValues(HttpMetric.HTTP_CLIENT_NAME);
+        if (!clientNames.isEmpty()) {
+            String client = labels("client", clientNames.get(0));
+            for (Duration acquire : metrics.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION)) {
+                observe(POOL_ACQUIRE, client, acquire.toNanos());
+            }
+            metrics.metricValues(HttpMetric.LEASED_CONCURRENCY).forEach(leased -> gauge(LEASED_CONNECTIONS, client, leased));
+            metrics.metricValues(HttpMetric.PENDING_CONCURRENCY_ACQUIRES)
+                .forEach(pending -> gauge(PENDING_ACQUIRES, client, pending));
+        }
+        metrics.children().forEach(this::recordHttpMetrics);
+    }
+
+    /**
+     * Prometheus text exposition format (0.0.4). Histograms are exposed as summaries.
+     */
+    void writePrometheus(Writer out) throws IOException {
+        String family = null;
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            family = writeHeader(out, family, counter.getKey(), "counter");
+            out.write(counter.getKey() + " " + counter.getValue().sum() + "\n");
+        }
+        for (Map.Entry<String, AtomicLong> gauge : gauges.entrySet()) {
+            family = writeHeader(out, family, gauge.getKey(), "gauge");
+            out.write(gauge.getKey() + " " + gauge.getValue().get() + "\n");
+        }
+        for (Map.Entry<String, Histogram> series : histograms.entrySet()) {
+            family = writeHeader(out, family, series.getKey(), "summary");
+            String name = nameOf(series.getKey());
+            String labels = series.getKey().substring(name.length() + 1, series.getKey().length() - 1);
+            Histogram histogram = series.getValue().copy();
+            for (double quantile : QUANTILES) {
+                out.write(name + "{" + labels + (labels.isEmpty() ? "" : ",") + "quantile=\"" + quantile + "\"} "
+                    + seconds(histogram.getValueAtPercentile(quantile * 100)) + "\n");
+            }
+            out.write(name + "_sum{" + labels + "} " + seconds(histogram.getMean() * histogram.getTotalCount()) + "\n");
+            out.write(name + "_count{" + labels + "} " + histogram.getTotalCount() + "\n");
+        }
+    }
+
+    public void printSummary() {
+        System.out.println("\nMODEL LATENCY (ms)");
+        System.out.println("-".repeat(50));
+        System.out.printf("%-42s %6s %8s %8s %8s %8s %9s %9s %8s %8s%n", "model", "calls", "p50", "p90", "p99",
+            "max", "ttft p50", "ttfb p50", "in tok", "out tok");
+        for (Map.Entry<String, Histogram> series : histograms.entrySet()) {
+            if (!nameOf(series.getKey()).equals(CALL_DURATION)) {
+                continue;
+            }
+            String model = series.getKey().substring(CALL_DURATION.length());
+            Histogram latency = series.getValue().copy();
+            System.out.printf("%-42s %6d %8.1f %8.1f %8.1f %8.1f %9.1f %9.1f %8d %8d%n", labelValue(model),
+                latency.getTotalCount(), millis(latency, 50), millis(latency, 90), millis(latency, 99),
+                latency.getMaxValue() / 1000.0, millis(histograms.get(TIME_TO_FIRST_TOKEN + model), 50),
+                millis(histograms.get(TIME_TO_FIRST_BYTE + model), 50),
+                counterValue(INPUT_TOKENS + model), counterValue(OUTPUT_TOKENS + model));
+        }
+        System.out.println("-".repeat(50));
+        for (Map.Entry<String, Histogram> series : histograms.entrySet()) {
+            if (nameOf(series.getKey()).equals(STAGE_DURATION)) {
+                Histogram latency = series.getValue().copy();
+                System.out.printf("stage %-36s %6d %8.1f %8.1f %8.1f %8.1f%n",
+                    labelValue(series.getKey().substring(STAGE_DURATION.length())), latency.getTotalCount(),
+                    millis(latency, 50), millis(latency, 90), millis(latency, 99), latency.getMaxValue() / 1000.0);
+            }
+        }
+        System.out.println("=".repeat(50));
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MetricsExporter exporter : exporters) {
+            exporter.close();
+        }
+    }
+
+    private void observe(String name, String labels, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        histograms.computeIfAbsent(name + labels, key -> new ConcurrentHistogram(3)).recordValue(nanos / 1000);
+    }
+
+    private void count(String name, String labels, long delta) {
+        counters.computeIfAbsent(name + labels, key -> new LongAdder()).add(delta);
+    }
+
+    private void gauge(String name, String labels, long value) {
+        gauges.computeIfAbsent(name + labels, key -> new AtomicLong()).set(value);
+    }
+
+    private long counterValue(String series) {
+        LongAdder counter = counters.get(series);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    private static String writeHeader(Writer out, String previousFamily, String series, String type)
+            throws IOException {
+        String family = nameOf(series);
+        if (!family.equals(previousFamily)) {
+            out.write("# HELP " + family + " " + HELP.getOrDefault(family, family) + "\n");
+            out.write("# TYPE " + family + " " + type + "\n");
+        }
+        return family;
+    }
+
+    private static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            String value = namesAndValues[i + 1] == null ? "" : namesAndValues[i + 1];
+            labels.append(namesAndValues[i]).append("=\"")
+                .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static String nameOf(String series) {
+        return series.substring(0, series.indexOf('{'));
+    }
+
+    private static String labelValue(String labels) {
+        int start = labels.indexOf('"') + 1;
+        return labels.substring(start, labels.indexOf('"', start));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram == null ? Double.NaN : histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static double seconds(double micros) {
+        return micros / 1_000_000.0;
+    }
+}
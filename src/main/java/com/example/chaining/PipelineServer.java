@@ -0,0 +1,473 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs game pipelines submitted over a local HTTP API, on the agents and warm
+ * Bedrock clients the process built at startup, so a job pays for its model calls
+ * and little else.
+ *
+ * <pre>
+ * POST /jobs              {"request": "...", "id": optional}: 202 with the job
+ * GET  /jobs              every job still held, newest last
+ * GET  /jobs/{id}         the job in the batch result format; status is QUEUED,
+ *                         RUNNING, SUCCESS or FAILED
+ * GET  /jobs/{id}/stream  server-sent events: each stage's text as it is
+ *                         generated, then the job as a "result" event
+ * GET  /health            running and queued job counts
+ * </pre>
+ *
+ * At most maxRunning jobs run at once; the rest wait in submission order. Finished
+ * jobs are kept for status queries until retainedJobs newer ones have finished.
+ * With a CheckpointLog, each job is checkpointed under its id and request, so
+ * re-submitting a failed job's id with resume enabled continues where it stopped.
+ */
+class PipelineServer implements AutoCloseable {
+    // Compared by identity: marks the end of a job's event stream
+    private static final String END_OF_STREAM = new String("end of stream");
+    private static final long SSE_KEEPALIVE_SECONDS = 15;
+
+    private final GamePipeline.PipelineAgents agents;
+    private final boolean streaming;
+    private final int maxRunning;
+    private final int retainedJobs;
+    private final CheckpointLog checkpointLog;
+    private final boolean resume;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    // Guarded by this
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Deque<Job> queued = new ArrayDeque<>();
+    private final Deque<Job> finished = new ArrayDeque<>();
+    private int running;
+    private boolean closed;
+
+    private final class Job {
+        final String id;
+        final String request;
+        final Instant submitted = Instant.now();
+        final CompletableFuture<StageGraph.Execution> started = new CompletableFuture<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile List<String> stageIds = List.of();
+        volatile String status = "QUEUED";
+        volatile Instant startedAt;
+        volatile Instant finishedAt;
+        volatile Map<String, String> outputs;
+        volatile Exception error;
+
+        Job(String id, String request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        ObjectNode toJson() {
+            Instant now = Instant.now();
+            Instant start = startedAt;
+            Instant end = finishedAt != null ? finishedAt : now;
+            StageGraph.Execution execution = started.getNow(null);
+            ObjectNode json = BatchRunner.resultJson(objectMapper, id, request, status,
+                start != null ? Duration.between(start, end) : Duration.ZERO, execution, outputs, error);
+            json.put("queued_ms", Duration.between(submitted, start != null ? start : now).toMillis());
+            return json;
+        }
+    }
+
+    /**
+     * @param host          address to bind; 127.0.0.1 keeps the API local
+     * @param port          0 for any free port
+     * @param checkpointLog where completed stages are recorded; null to run without checkpoints
+     * @param resume        reuse checkpointed stages instead of calling their models again
+     */
+    PipelineServer(GamePipeline.PipelineAgents agents, boolean streaming, String host, int port, int maxRunning,
+                   int retainedJobs, CheckpointLog checkpointLog, boolean resume) throws IOException {
+        if (maxRunning < 1) {
+            throw new IllegalArgumentException("Server must run at least 1 job at a time");
+        }
+        this.agents = agents;
+        this.streaming = streaming;
+        this.maxRunning = maxRunning;
+        this.retainedJobs = retainedJobs;
+        this.checkpointLog = checkpointLog;
+        this.resume = resume;
+        // Stream requests hold their thread until the job ends, so the pool is unbounded
+        this.handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/jobs", this::handleJobs);
+        server.createContext("/health", this::handleHealth);
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Blocks until the process is asked to stop (Ctrl-C or SIGTERM). The shutdown
+     * hook then waits for the calling thread to return from main, so close() and
+     * whatever cleanup follows it still run before the JVM halts.
+     */
+    void awaitShutdown() throws InterruptedException {
+        CountDownLatch stop = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stop.countDown();
+            try {
+                caller.join(TimeUnit.SECONDS.toMillis(60));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "pipeline-server-shutdown"));
+        stop.await();
+    }
+
+    /**
+     * Stops accepting requests, drops jobs that have not started and waits up to
+     * drainTimeout for running ones to finish.
+     */
+    void close(Duration drainTimeout) {
+        List<Job> draining;
+        List<Job> dropped;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dropped = new ArrayList<>(queued);
+            queued.clear();
+            draining = jobs.values().stream()
+                .filter(job -> job.startedAt != null && job.finishedAt == null)
+                .collect(Collectors.toList());
+        }
+        server.stop(0);
+        System.out.printf("Server stopping: %d jobs running, %d queued jobs dropped%n", draining.size(),
+            dropped.size());
+        for (Job job : dropped) {
+            job.error = new IllegalStateException("Server shut down before the job started");
+            job.finishedAt = Instant.now();
+            job.status = "FAILED";
+            job.started.completeExceptionally(job.error);
+            job.done.complete(null);
+        }
+        try {
+            CompletableFuture.allOf(draining.stream().map(job -> job.done).toArray(CompletableFuture[]::new))
+                .get(drainTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.out.printf("Gave up waiting for running jobs after %d s%n", drainTimeout.toSeconds());
+        }
+        handlers.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        close(Duration.ofSeconds(30));
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            String method = exchange.getRequestMethod();
+            // path is ["", "jobs"], ["", "jobs", id] or ["", "jobs", id, "stream"]
+            if (path.length == 2) {
+                if ("POST".equals(method)) {
+                    submit(exchange);
+                } else if ("GET".equals(method)) {
+                    ArrayNode list = objectMapper.createArrayNode();
+                    synchronized (this) {
+                        jobs.values().forEach(job -> list.add(summary(job)));
+                    }
+                    send(exchange, 200, list);
+                } else {
+                    sendError(exchange, 405, "Use GET or POST");
+                }
+                return;
+            }
+            if (path.length > 4 || path.length == 4 && !"stream".equals(path[3])) {
+                sendError(exchange, 404, "No such endpoint");
+                return;
+            }
+            if (!"GET".equals(method)) {
+                sendError(exchange, 405, "Use GET");
+                return;
+            }
+            Job job;
+            synchronized (this) {
+                job = jobs.get(path[2]);
+            }
+            if (job == null) {
+                sendError(exchange, 404, "No such job: " + path[2]);
+            } else if (path.length == 4) {
+                stream(exchange, job);
+            } else {
+                send(exchange, 200, job.toJson());
+            }
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            ObjectNode health = objectMapper.createObjectNode();
+            synchronized (this) {
+                health.put("status", closed ? "stopping" : "ok");
+                health.put("running", running);
+                health.put("queued", queued.size());
+                health.put("max_running", maxRunning);
+                health.put("jobs", jobs.size());
+            }
+            send(exchange, 200, health);
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        JsonNode body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = objectMapper.readTree(in);
+        } catch (IOException e) {
+            sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+            return;
+        }
+        JsonNode requestNode = body == null ? null
+            : body.hasNonNull("request") ? body.get("request") : body.get("project_request");
+        if (requestNode == null || requestNode.asText().isBlank()) {
+            sendError(exchange, 400, "No \"request\" field");
+            return;
+        }
+        String id = body.hasNonNull("id") ? body.get("id").asText() : UUID.randomUUID().toString();
+        if (id.isBlank() || id.contains("/")) {
+            sendError(exchange, 400, "Job ids must be non-empty and must not contain '/'");
+            return;
+        }
+
+        Job job = new Job(id, requestNode.asText());
+        synchronized (this) {
+            if (closed) {
+                sendError(exchange, 503, "Server is shutting down");
+                return;
+            }
+            Job existing = jobs.get(id);
+            if (existing != null && existing.finishedAt == null) {
+                sendError(exchange, 409, "Job " + id + " is already " + existing.status);
+                return;
+            }
+            // A resubmitted id replaces the finished job it names
+            if (existing != null) {
+                jobs.remove(id);
+                finished.remove(existing);
+            }
+            jobs.put(id, job);
+            queued.add(job);
+        }
+        drain();
+        exchange.getResponseHeaders().set("Location", "/jobs/" + id);
+        send(exchange, 202, summary(job));
+    }
+
+    /**
+     * Starts queued jobs while there is room.
+     */
+    private void drain() {
+        while (true) {
+            Job next;
+            synchronized (this) {
+                if (running >= maxRunning || queued.isEmpty()) {
+                    return;
+                }
+                next = queued.poll();
+                running++;
+            }
+            start(next);
+        }
+    }
+
+    private void start(Job job) {
+        job.startedAt = Instant.now();
+        StageGraph.Execution execution;
+        try {
+            CheckpointLog.Run checkpoints = checkpointLog == null ? null
+                : checkpointLog.run(CheckpointLog.runKey(job.id, job.request), resume);
+            StageGraph graph = GamePipeline.buildGameGraph(job.request, agents);
+            job.stageIds = graph.stages().stream().map(stage -> stage.id).collect(Collectors.toList());
+            execution = graph.run(streaming, new StageGraph.StageListener() { }, checkpoints);
+        } catch (RuntimeException e) {
+            finish(job, null, e);
+            return;
+        }
+        job.status = "RUNNING";
+        job.started.complete(execution);
+        execution.result().whenComplete((outputs, failure) -> finish(job, outputs,
+            failure == null ? null
+                : failure.getCause() instanceof Exception ? (Exception) failure.getCause()
+                : new RuntimeException(failure)));
+    }
+
+    private void finish(Job job, Map<String, String> outputs, Exception error) {
+        job.outputs = outputs;
+        job.error = error;
+        job.finishedAt = Instant.now();
+        job.status = error == null ? "SUCCESS" : "FAILED";
+        job.started.completeExceptionally(error != null ? error : new IllegalStateException("Job did not start"));
+        synchronized (this) {
+            running--;
+            finished.add(job);
+            while (finished.size() > retainedJobs) {
+                Job evicted = finished.poll();
+                jobs.remove(evicted.id, evicted);
+            }
+        }
+        job.done.complete(null);
+        drain();
+    }
+
+    private ObjectNode summary(Job job) {
+        ObjectNode json = objectMapper.createObjectNode();
+        json.put("id", job.id);
+        json.put("status", job.status);
+        json.put("submitted_at", job.submitted.toString());
+        return json;
+    }
+
+    /**
+     * Relays each stage's chunks as they are generated. The stream ends with a
+     * "result" event carrying the job, sent once every stage has settled and been
+     * relayed. A client that disconnects does not affect the job.
+     */
+    private void stream(HttpExchange exchange, Job job) throws IOException {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        job.started.whenComplete((execution, notStarted) -> {
+            List<CompletableFuture<?>> relayed = new ArrayList<>();
+            if (execution != null) {
+                for (String stageId : job.stageIds) {
+                    relayed.add(relay(execution, stageId, events));
+                }
+            }
+            CompletableFuture.allOf(relayed.toArray(new CompletableFuture<?>[0]))
+                .thenCombine(job.done, (ignored, alsoIgnored) -> null)
+                .whenComplete((ignored, error) -> {
+                    events.add(event("result", job.toJson()));
+                    events.add(END_OF_STREAM);
+                });
+        });
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                String next = events.poll(SSE_KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+                if (next == END_OF_STREAM) {
+                    return;
+                }
+                out.write((next != null ? next : ": keepalive\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client went away; the job carries on
+        }
+    }
+
+    /**
+     * Queues a "stage" event when the stage starts, a "chunk" event per chunk of its
+     * output and a "stage_end" event when it settles.
+     *
+     * @return completes once the stage's last event is queued
+     */
+    private CompletableFuture<Void> relay(StageGraph.Execution execution, String stageId,
+                                          BlockingQueue<String> events) {
+        CompletableFuture<Void> relayed = new CompletableFuture<>();
+        execution.publisher(stageId).whenComplete((publisher, skipped) -> {
+            if (publisher == null) {
+                // An upstream stage failed, so this one never started
+                relayed.complete(null);
+                return;
+            }
+            events.add(event("stage", stageEvent(stageId)));
+            publisher.subscribe(new Flow.Subscriber<String>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(String chunk) {
+                    events.add(event("chunk", stageEvent(stageId).put("text", chunk)));
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    events.add(event("stage_end", stageEvent(stageId).put("status", "FAILED")
+                        .put("error", BackoffPolicy.rootCause(error).getMessage())));
+                    relayed.complete(null);
+                }
+
+                @Override
+                public void onComplete() {
+                    events.add(event("stage_end", stageEvent(stageId).put("status", "SUCCESS")));
+                    relayed.complete(null);
+                }
+            });
+        });
+        return relayed;
+    }
+
+    private ObjectNode stageEvent(String stageId) {
+        return objectMapper.createObjectNode().put("stage", stageId);
+    }
+
+    private String event(String name, JsonNode data) {
+        try {
+            return "event: " + name + "\ndata: " + objectMapper.writeValueAsString(data) + "\n\n";
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, objectMapper.createObjectNode().put("error", message));
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs game pipelines leased from a JobQueue shared with other worker processes,
+ * so throughput grows by adding workers rather than by running one pipeline per
+ * process.
+ *
+ * Up to maxRunning jobs run at once. The worker heartbeats every
+ * heartbeatInterval, which must be well inside the queue's lease timeout. Each
+ * job's stages are checkpointed to the job's own log and every run of a job
+ * resumes from it, so a job reclaimed from a worker that died re-runs only the
+ * stages that had not completed.
+ *
+ * Heartbeats run on a thread of their own, so a slow checkpoint fsync cannot
+ * delay them past the lease timeout. A worker that stalls past its lease timeout
+ * anyway loses its jobs to other workers. At its next heartbeat it closes their
+ * checkpoint logs, so it stops writing to them, and drops their results when
+ * they finish; a checkpoint it appends before then lands after the new owner's
+ * records rather than over them (see RecordLog).
+ */
+class PipelineWorker {
+    private static final int PROGRESS_INTERVAL = 10;
+
+    private final GamePipeline.PipelineAgents agents;
+    private final boolean streaming;
+    private final JobQueue queue;
+    private final int maxRunning;
+    private final Duration heartbeatInterval;
+    private final Duration pollInterval;
+    private final Duration checkpointSyncInterval;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService heartbeats;
+    private final ScheduledExecutorService checkpointSyncer;
+    private final Map<String, RunningJob> running = new ConcurrentHashMap<>();
+
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger lost = new AtomicInteger();
+    private final AtomicInteger resumedStages = new AtomicInteger();
+
+    private static final class RunningJob {
+        final JobQueue.Lease lease;
+        final Instant start = Instant.now();
+        volatile CheckpointLog checkpoints;
+        volatile boolean lost;
+
+        RunningJob(JobQueue.Lease lease) {
+            this.lease = lease;
+        }
+    }
+
+    /**
+     * @param checkpointSyncInterval how long checkpoint records may wait for the fsync they share
+     */
+    PipelineWorker(GamePipeline.PipelineAgents agents, boolean streaming, JobQueue queue, int maxRunning,
+                   Duration heartbeatInterval, Duration pollInterval, Duration checkpointSyncInterval) {
+        if (maxRunning < 1) {
+            throw new IllegalArgumentException("Worker must run at least 1 job at a time");
+        }
+        this.agents = agents;
+        this.streaming = streaming;
+        this.queue = queue;
+        this.maxRunning = maxRunning;
+        this.heartbeatInterval = heartbeatInterval;
+        this.pollInterval = pollInterval;
+        this.checkpointSyncInterval = checkpointSyncInterval;
+        this.heartbeats = daemonScheduler("pipeline-worker-heartbeat");
+        // Every job's checkpoint fsyncs share one thread
+        this.checkpointSyncer = daemonScheduler("pipeline-worker-sync");
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Claims and runs jobs until the process is asked to stop (Ctrl-C or SIGTERM),
+     * or with untilDrained, until no job is queued or leased anywhere. On a stop,
+     * running jobs get up to drainTimeout to finish; the rest are released back to
+     * the queue, to be resumed from their checkpoints by another worker.
+     */
+    void run(boolean untilDrained, Duration drainTimeout) throws IOException, InterruptedException {
+        CountDownLatch stop = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        Thread hook = new Thread(() -> {
+            stop.countDown();
+            try {
+                caller.join(drainTimeout.toMillis() + TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "pipeline-worker-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        queue.heartbeat();
+        heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeatInterval.toNanos(), heartbeatInterval.toNanos(),
+            TimeUnit.NANOSECONDS);
+        System.out.printf("Worker started: up to %d jobs at once, %d workers live%n%n", maxRunning,
+            queue.liveWorkers());
+
+        Semaphore slots = new Semaphore(maxRunning);
+        Instant workerStart = Instant.now();
+        try {
+            while (stop.getCount() > 0) {
+                if (!slots.tryAcquire(pollInterval.toMillis(), TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                JobQueue.Lease lease;
+                try {
+                    lease = queue.claim();
+                } catch (IOException e) {
+                    System.err.printf("Claiming a job failed: %s%n", e.getMessage());
+                    lease = null;
+                }
+                if (lease == null) {
+                    slots.release();
+                    if (untilDrained && slots.availablePermits() == maxRunning && queue.isDrained()) {
+                        break;
+                    }
+                    stop.await(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                start(lease, slots, workerStart);
+            }
+        } finally {
+            if (!slots.tryAcquire(maxRunning, drainTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                releaseRunning();
+            }
+            heartbeats.shutdown();
+            checkpointSyncer.shutdown();
+            queue.close();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // Already shutting down
+            }
+        }
+
+        Duration elapsed = Duration.between(workerStart, Instant.now());
+        int finished = completed.get();
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("WORKER STOPPED");
+        System.out.println("=".repeat(50));
+        System.out.printf("Pipelines:   %d (%d succeeded, %d failed), %d lost to other workers%n", finished,
+            succeeded.get(), failed.get(), lost.get());
+        System.out.printf("Resumed:     %d stages from checkpoints%n", resumedStages.get());
+        long throttles = 0;
+        long fleetThrottles = 0;
+        for (ModelRateLimiter limiter : ModelRateLimiter.all()) {
+            throttles += limiter.throttleCount();
+            fleetThrottles += limiter.totalThrottleCount();
+        }
+        System.out.printf("Throttles:   %d in this worker, %d in all workers sharing its rate limits%n", throttles,
+            fleetThrottles);
+        System.out.printf("Total Time:  %.2f seconds%n", elapsed.toMillis() / 1000.0);
+        System.out.printf("Throughput:  %.2f pipelines/min%n", finished / (Math.max(elapsed.toMillis(), 1) / 60000.0));
+        System.out.println("=".repeat(50));
+    }
+
+    private void start(JobQueue.Lease lease, Semaphore slots, Instant workerStart) {
+        RunningJob job = new RunningJob(lease);
+        running.put(lease.id(), job);
+        StageGraph.Execution execution;
+        try {
+            job.checkpoints = new CheckpointLog(lease.checkpointDirectory(), checkpointSyncInterval, checkpointSyncer);
+            CheckpointLog.Run checkpoints = job.checkpoints.run(CheckpointLog.runKey(lease.id(), lease.request()), true);
+            execution = GamePipeline.buildGameGraph(lease.request(), agents)
+                .run(streaming, new StageGraph.StageListener() {
+                    @Override
+                    public void onResume(StageGraph.Stage stage, CheckpointLog.Checkpoint checkpoint) {
+                        resumedStages.incrementAndGet();
+                    }
+                }, checkpoints);
+        } catch (IOException | RuntimeException e) {
+            finish(job, null, null, e, slots, workerStart);
+            return;
+        }
+        execution.result().whenComplete((outputs, failure) -> finish(job, execution, outputs,
+            failure == null ? null
+                : failure.getCause() instanceof Exception ? (Exception) failure.getCause()
+                : new RuntimeException(failure), slots, workerStart));
+    }
+
+    private void finish(RunningJob job, StageGraph.Execution execution, Map<String, String> outputs,
+                        Exception error, Semaphore slots, Instant workerStart) {
+        String id = job.lease.id();
+        try {
+            closeCheckpoints(job);
+            ObjectNode result = BatchRunner.resultJson(objectMapper, id, job.lease.request(),
+                error == null ? "SUCCESS" : "FAILED", Duration.between(job.start, Instant.now()), execution,
+                outputs, error);
+            if (job.lost || !job.lease.complete(result)) {
+                lost.incrementAndGet();
+                System.out.printf("Job %s finished after its lease was lost; result dropped%n", id);
+                return;
+            }
+            (error == null ? succeeded : failed).incrementAndGet();
+            int finished = completed.incrementAndGet();
+            if (error != null) {
+                System.out.printf("Job %s failed: %s%n", id, error.getMessage());
+            }
+            if (finished % PROGRESS_INTERVAL == 0) {
+                Duration elapsed = Duration.between(workerStart, Instant.now());
+                System.out.printf("Progress: %d pipelines complete (%d failed), %.2f pipelines/min%n", finished,
+                    failed.get(), finished / (Math.max(elapsed.toMillis(), 1) / 60000.0));
+            }
+        } catch (IOException e) {
+            System.err.printf("Failed to record the result of job %s: %s%n", id, e.getMessage());
+        } finally {
+            running.remove(id, job);
+            slots.release();
+        }
+    }
+
+    /**
+     * Renews this worker's leases and stops checkpointing the jobs it has lost.
+     */
+    private void heartbeat() {
+        try {
+            queue.heartbeat();
+        } catch (IOException e) {
+            System.err.printf("Heartbeat failed: %s%n", e.getMessage());
+        }
+        for (RunningJob job : running.values()) {
+            if (!job.lost && !job.lease.isHeld()) {
+                job.lost = true;
+                System.out.printf("Lost the lease on job %s; it has been reassigned%n", job.lease.id());
+                closeCheckpoints(job);
+            }
+        }
+    }
+
+    private void releaseRunning() {
+        List<RunningJob> unfinished = new ArrayList<>(running.values());
+        System.out.printf("Releasing %d unfinished jobs to other workers%n", unfinished.size());
+        for (RunningJob job : unfinished) {
+            job.lost = true;
+            closeCheckpoints(job);
+            try {
+                job.lease.release();
+            } catch (IOException e) {
+                System.err.printf("Failed to release job %s: %s%n", job.lease.id(), e.getMessage());
+            }
+        }
+    }
+
+    private static void closeCheckpoints(RunningJob job) {
+        CheckpointLog checkpoints = job.checkpoints;
+        if (checkpoints == null) {
+            return;
+        }
+        try {
+            checkpoints.close();
+        } catch (IOException e) {
+            System.err.printf("Failed to close the checkpoint log of job %s: %s%n", job.lease.id(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.chaining;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the aggregated metrics at http://host:port/metrics for a Prometheus scraper.
+ * Binds to the given host only, so the endpoint is not exposed beyond it unless
+ * configured to be.
+ */
+class PrometheusExporter implements MetricsExporter {
+    private final PipelineMetrics metrics;
+    private final HttpServer server;
+
+    /**
+     * @param host the address to listen on, e.g. 127.0.0.1, or 0.0.0.0 for every interface
+     */
+    PrometheusExporter(PipelineMetrics metrics, String host, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::scrape);
+        server.start();
+    }
+
+    String host() {
+        return server.getAddress().getHostString();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        StringWriter text = new StringWriter(8192);
+        metrics.writePrometheus(text);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * A model call's user input as a sequence of literal strings and Artifacts (a
+ * rope), so a prompt built from upstream stage outputs references them instead
+ * of copying them into one String. The codecs stream it straight into the JSON
+ * request body; {@link #toString()} materializes it for anything that needs the
+ * whole text at once.
+ */
+final class Prompt {
+    // Each part is a String or an Artifact
+    private final List<Object> parts;
+    private final long size;
+
+    /**
+     * @param parts Strings and Artifacts, in order
+     */
+    Prompt(List<Object> parts) {
+        this.parts = List.copyOf(parts);
+        long total = 0;
+        for (Object part : this.parts) {
+            total += part instanceof Artifact artifact ? artifact.size() : ArtifactStore.utf8Length((String) part);
+        }
+        this.size = total;
+    }
+
+    static Prompt of(String text) {
+        return new Prompt(List.of(text));
+    }
+
+    /**
+     * Length in UTF-8 bytes.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Length in UTF-16 chars, as String.length() of the whole text.
+     */
+    long length() {
+        long total = 0;
+        for (Object part : parts) {
+            total += part instanceof Artifact artifact ? artifact.length() : ((String) part).length();
+        }
+        return total;
+    }
+
+    /**
+     * Writes the prompt as one JSON string value, escaping it on the way into the
+     * generator's output buffer.
+     */
+    void writeJsonString(JsonGenerator json) throws IOException {
+        if (parts.size() == 1 && parts.get(0) instanceof String text) {
+            json.writeString(text);
+        } else {
+            json.writeString(reader(), -1);
+        }
+    }
+
+    Reader reader() {
+        return new Reader() {
+            private int next;
+            private Reader current = Reader.nullReader();
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                while (true) {
+                    int count = current.read(buffer, offset, length);
+                    if (count > 0 || length == 0) {
+                        return count;
+                    }
+                    if (next == parts.size()) {
+                        return -1;
+                    }
+                    Object part = parts.get(next++);
+                    current = part instanceof Artifact artifact ? artifact.reader() : new StringReader((String) part);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Feeds the prompt's UTF-8 bytes to the digest, part by part.
+     */
+    void digest(MessageDigest digest) {
+        for (Object part : parts) {
+            if (part instanceof Artifact artifact) {
+                artifact.digest(digest);
+            } else {
+                digest.update(((String) part).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (parts.size() == 1 && parts.get(0) instanceof String text) {
+            return text;
+        }
+        StringBuilder text = new StringBuilder((int) Math.min(size, Integer.MAX_VALUE));
+        for (Object part : parts) {
+            text.append(part instanceof Artifact artifact ? artifact.text() : (String) part);
+        }
+        return text.toString();
+    }
+}
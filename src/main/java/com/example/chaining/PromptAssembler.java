@@ -0,0 +1,226 @@
+package com.example.chaining;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builds a stage prompt from literal text and upstream stage outputs.
+ *
+ * Upstream outputs are referenced as Artifacts rather than copied, so the prompt
+ * is a rope that the codec streams straight into the request body. The assembler
+ * does not subscribe to upstream chunks: each ChunkPublisher encodes its chunks
+ * into the artifact as they arrive, so that per-byte work overlaps generation and,
+ * once the last upstream stage completes, assembly only links the parts. The
+ * exception is compaction, whose scan of the upstream bytes runs after they
+ * complete, one pass per output.
+ *
+ * Compaction cuts the input tokens of later stages by forwarding only parts of
+ * the upstream outputs, as slices of the same artifacts:
+ * <ul>
+ *   <li>DEDUP drops paragraphs of any upstream output that already appear earlier
+ *       in the prompt, such as code that a test suite repeats;</li>
+ *   <li>CODE also reduces outputs added with {@link #code} to their fenced code
+ *       blocks, dropping the prose around them; an output without code blocks is
+ *       forwarded as if added with {@link #output}.</li>
+ * </ul>
+ */
+class PromptAssembler {
+    enum Compaction {
+        NONE, DEDUP, CODE
+    }
+
+    // Shorter paragraphs (a closing brace, a heading) are too generic to drop as repeats
+    private static final int MIN_DUPLICATE_BYTES = 64;
+
+    private final Compaction compaction;
+    private final List<Object> parts = new ArrayList<>();
+
+    private static final class Input {
+        final ChunkPublisher upstream;
+        final boolean codeOnly;
+
+        Input(ChunkPublisher upstream, boolean codeOnly) {
+            this.upstream = upstream;
+            this.codeOnly = codeOnly;
+        }
+    }
+
+    public PromptAssembler() {
+        this(Compaction.NONE);
+    }
+
+    public PromptAssembler(Compaction compaction) {
+        this.compaction = compaction;
+    }
+
+    public PromptAssembler literal(String text) {
+        parts.add(text);
+        return this;
+    }
+
+    /**
+     * Adds an upstream output, once its stage completes.
+     */
+    public PromptAssembler output(ChunkPublisher upstream) {
+        parts.add(new Input(upstream, false));
+        return this;
+    }
+
+    /**
+     * Adds an upstream output whose code is what the stage needs; with CODE
+     * compaction only its code blocks are forwarded.
+     */
+    public PromptAssembler code(ChunkPublisher upstream) {
+        parts.add(new Input(upstream, compaction == Compaction.CODE));
+        return this;
+    }
+
+    public CompletableFuture<Prompt> assemble() {
+        List<CompletableFuture<Artifact>> pending = new ArrayList<>();
+        for (Object part : parts) {
+            if (part instanceof Input input) {
+                pending.add(input.upstream.artifact());
+            }
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> build());
+    }
+
+    private Prompt build() {
+        List<Object> prompt = new ArrayList<>();
+        Set<ByteBuffer> seen = compaction == Compaction.NONE ? null : new HashSet<>();
+        long offered = 0;
+        long forwarded = 0;
+        for (Object part : parts) {
+            if (!(part instanceof Input input)) {
+                prompt.add(part);
+                continue;
+            }
+            Artifact output = input.upstream.artifact().join();
+            if (seen == null) {
+                prompt.add(output);
+                continue;
+            }
+            ByteBuffer bytes = output.bytes();
+            List<int[]> units = input.codeOnly ? codeBlocks(bytes) : paragraphs(bytes);
+            if (input.codeOnly && units.isEmpty()) {
+                units = paragraphs(bytes);
+            }
+            // Adjacent kept units are forwarded as one slice
+            int runStart = -1;
+            int runEnd = -1;
+            for (int[] unit : units) {
+                ByteBuffer content = bytes.slice(unit[0], unit[2] - unit[0]);
+                if (content.remaining() >= MIN_DUPLICATE_BYTES && !seen.add(content)) {
+                    continue;
+                }
+                if (unit[0] != runEnd) {
+                    if (runStart >= 0) {
+                        prompt.add(output.slice(runStart, runEnd - runStart));
+                    }
+                    runStart = unit[0];
+                }
+                runEnd = unit[1];
+                forwarded += unit[1] - unit[0];
+            }
+            if (runStart >= 0) {
+                prompt.add(output.slice(runStart, runEnd - runStart));
+            }
+            offered += output.size();
+        }
+        if (seen != null) {
+            ArtifactStore.shared().recordCompaction(offered, forwarded);
+        }
+        return new Prompt(prompt);
+    }
+
+    /**
+     * Paragraphs as {start, end, contentEnd}: each runs from its first line to the
+     * end of the blank lines after it, and its content excludes those blank lines.
+     */
+    static List<int[]> paragraphs(ByteBuffer bytes) {
+        List<int[]> paragraphs = new ArrayList<>();
+        int start = 0;
+        int contentEnd = -1;
+        for (int line = 0; line < bytes.limit(); ) {
+            int next = lineEnd(bytes, line);
+            if (isBlank(bytes, line, next)) {
+                if (contentEnd < 0) {
+                    // Leading blank lines belong to the first paragraph
+                    line = next;
+                    continue;
+                }
+            } else {
+                if (contentEnd >= 0 && contentEnd < line) {
+                    paragraphs.add(new int[] {start, line, contentEnd});
+                    start = line;
+                }
+                contentEnd = next;
+            }
+            line = next;
+        }
+        if (contentEnd >= 0) {
+            paragraphs.add(new int[] {start, bytes.limit(), contentEnd});
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Fenced code blocks as {start, end, end}, each including its fence lines; a
+     * block left open runs to the end of the text.
+     */
+    static List<int[]> codeBlocks(ByteBuffer bytes) {
+        List<int[]> blocks = new ArrayList<>();
+        int blockStart = -1;
+        for (int line = 0; line < bytes.limit(); ) {
+            int next = lineEnd(bytes, line);
+            if (isFence(bytes, line, next)) {
+                if (blockStart < 0) {
+                    blockStart = line;
+                } else {
+                    blocks.add(new int[] {blockStart, next, next});
+                    blockStart = -1;
+                }
+            }
+            line = next;
+        }
+        if (blockStart >= 0) {
+            blocks.add(new int[] {blockStart, bytes.limit(), bytes.limit()});
+        }
+        return blocks;
+    }
+
+    /**
+     * The offset just past the line's newline, or the end of the text.
+     */
+    private static int lineEnd(ByteBuffer bytes, int start) {
+        for (int i = start; i < bytes.limit(); i++) {
+            if (bytes.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return bytes.limit();
+    }
+
+    private static boolean isBlank(ByteBuffer bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFence(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        while (i < end && (bytes.get(i) == ' ' || bytes.get(i) == '\t')) {
+            i++;
+        }
+        return end - i >= 3 && bytes.get(i) == '`' && bytes.get(i + 1) == '`' && bytes.get(i + 2) == '`';
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.chaining;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of checksummed records, the storage under ResponseCache and
+ * CheckpointLog.
+ *
+ * Record layout: int length, int crc32 of the body, body. Callers keep their own
+ * index of body offsets; this class only frames, appends and reads records.
+ *
+ * On open the whole file is scanned. A record whose length or checksum is wrong
+ * is skipped, and scanning resumes at the next valid record, so one damaged
+ * record costs only itself. Only when no valid record follows (a write torn by a
+ * crash) is the file truncated back to the end of the last good record.
+ *
+ * Several processes may append to one log, as worker processes do with the
+ * response cache and with the checkpoint log of a job that moves between them.
+ * Each append, and the scan on open, holds an exclusive lock on the file and
+ * appends at its current size, so records from different processes never
+ * overlap and a scan never mistakes another process's append in progress for a
+ * torn write. Records appended by other processes after this one opened the log
+ * are not passed to its visitor. A JVM may have only one RecordLog open per file.
+ */
+class RecordLog implements AutoCloseable {
+    static final int HEADER_BYTES = 8;
+
+    /**
+     * Receives each valid record found by {@link #open}.
+     */
+    interface Visitor {
+        void record(long bodyOffset, byte[] body) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final String name;
+    private final int minBodyBytes;
+
+    private RecordLog(FileChannel channel, String name, int minBodyBytes) {
+        this.channel = channel;
+        this.name = name;
+        this.minBodyBytes = minBodyBytes;
+    }
+
+    /**
+     * Opens or creates the log and passes every valid record to the visitor, in file order.
+     *
+     * @param name         how the log is named in recovery messages
+     * @param minBodyBytes records with shorter bodies are treated as damaged
+     */
+    static RecordLog open(Path file, String name, int minBodyBytes, Visitor visitor) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RecordLog log = new RecordLog(channel, name, minBodyBytes);
+        try {
+            log.recover(visitor);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Appends one record whose body is the given parts, concatenated.
+     *
+     * @return the offset of the body
+     */
+    synchronized long append(byte[]... parts) throws IOException {
+        CRC32 crc = new CRC32();
+        int length = 0;
+        for (byte[] part : parts) {
+            crc.update(part);
+            length += part.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+        record.putInt(length).putInt((int) crc.getValue());
+        for (byte[] part : parts) {
+            record.put(part);
+        }
+        record.flip();
+        FileLock lock = channel.lock();
+        try {
+            // Another process may have appended since this one last did
+            long start = channel.size();
+            long position = start;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            return start + HEADER_BYTES;
+        } finally {
+            lock.release();
+        }
+    }
+
+    byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + name);
+            }
+        }
+        return buffer.array();
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void recover(Visitor visitor) throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            scan(visitor);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void scan(Visitor visitor) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        while (position + HEADER_BYTES <= size) {
+            byte[] body = recordAt(position, size);
+            if (body != null) {
+                visitor.record(position + HEADER_BYTES, body);
+                position += HEADER_BYTES + body.length;
+                continue;
+            }
+            long next = nextRecord(position, size);
+            if (next < 0) {
+                break;
+            }
+            System.err.printf("%s: skipping %d bytes of damaged records at offset %d%n", name, next - position,
+                position);
+            position = next;
+        }
+        if (position < size) {
+            System.err.printf("%s: discarding %d bytes of incomplete records%n", name, size - position);
+            channel.truncate(position);
+        }
+    }
+
+    /**
+     * The body of the record at the position, or null if there is no valid record there.
+     */
+    private byte[] recordAt(long position, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                return null;
+            }
+        }
+        header.flip();
+        int length = header.getInt();
+        int expectedCrc = header.getInt();
+        if (length < minBodyBytes || length > size - position - HEADER_BYTES) {
+            return null;
+        }
+        byte[] body = read(position + HEADER_BYTES, length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == expectedCrc ? body : null;
+    }
+
+    /**
+     * The offset of the first valid record after the damaged one at the position, or
+     * -1 if none follows. Tries the end of the damaged record first, in case only its
+     * body was hit, then every later offset.
+     */
+    private long nextRecord(long damaged, long size) throws IOException {
+        ByteBuffer lengthField = ByteBuffer.allocate(4);
+        if (channel.read(lengthField, damaged) == 4) {
+            long claimedEnd = damaged + HEADER_BYTES + lengthField.flip().getInt();
+            if (claimedEnd > damaged + HEADER_BYTES && claimedEnd + HEADER_BYTES <= size
+                && recordAt(claimedEnd, size) != null) {
+                return claimedEnd;
+            }
+        }
+        for (long candidate = damaged + 1; candidate + HEADER_BYTES <= size; candidate++) {
+            if (recordAt(candidate, size) != null) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+}
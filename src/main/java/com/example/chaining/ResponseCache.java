@@ -0,0 +1,236 @@
+package com.example.chaining;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed cache of model responses.
+ *
+ * Entries are keyed on a SHA-256 of (modelId, systemPrompt, userInput, inference
+ * parameters). Lookups go through three tiers:
+ * <ol>
+ *   <li>an in-memory LRU bounded by total UTF-8 bytes,</li>
+ *   <li>an append-only log file that survives restarts (only offsets are kept on heap),</li>
+ *   <li>the set of calls currently in flight, so concurrent identical requests share one call.</li>
+ * </ol>
+ * Failed calls are never cached.
+ *
+ * Log records (see RecordLog) hold the 32-byte key digest followed by the UTF-8
+ * response. A damaged record only loses that entry; a torn record at the tail
+ * (e.g. after a crash mid-write) is truncated on open.
+ */
+class ResponseCache implements AutoCloseable {
+    private static final int DIGEST_BYTES = 32;
+
+    private final long maxMemoryBytes;
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    private final RecordLog log;
+    private final Map<String, long[]> diskIndex = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public static class Stats {
+        public final LongAdder memoryHits = new LongAdder();
+        public final LongAdder diskHits = new LongAdder();
+        public final LongAdder sharedInFlight = new LongAdder();
+        public final LongAdder misses = new LongAdder();
+        public final LongAdder bytesServed = new LongAdder();
+        public final LongAdder bytesStored = new LongAdder();
+    }
+
+    /**
+     * @param directory      where the log lives; null for a memory-only cache
+     * @param maxMemoryBytes bound on the UTF-8 size of entries held on heap
+     */
+    ResponseCache(Path directory, long maxMemoryBytes) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        if (directory == null) {
+            this.log = null;
+            return;
+        }
+        Files.createDirectories(directory);
+        this.log = RecordLog.open(directory.resolve("responses.log"), "Response cache", DIGEST_BYTES, this::index);
+    }
+
+    static String key(String modelId, String systemPrompt, String userInput, String inferenceParams) {
+        return key(modelId, systemPrompt, Prompt.of(userInput), inferenceParams);
+    }
+
+    /**
+     * As the String form, hashing the prompt part by part; the key depends only on its text.
+     */
+    static String key(String modelId, String systemPrompt, Prompt userInput, String inferenceParams) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // Length-prefix each field so ("ab", "c") and ("a", "bc") hash differently
+            for (String field : new String[] {modelId, systemPrompt}) {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                digest.update(bytes);
+            }
+            digest.update(ByteBuffer.allocate(4).putInt((int) userInput.size()).array());
+            userInput.digest(digest);
+            byte[] params = inferenceParams.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(params.length).array());
+            digest.update(params);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached response for the key, joins an identical call already in
+     * flight, or starts the loader and caches its result on success.
+     */
+    public CompletableFuture<String> getOrLoad(String modelId, String key, Supplier<CompletableFuture<String>> loader) {
+        Stats modelStats = statsFor(modelId);
+
+        String cached = lookup(key, modelStats);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> placeholder = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, placeholder);
+        if (existing != null) {
+            modelStats.sharedInFlight.increment();
+            return existing;
+        }
+
+        // Re-check: the call we would have joined may have finished between lookup and putIfAbsent
+        cached = lookup(key, modelStats);
+        if (cached != null) {
+            inFlight.remove(key, placeholder);
+            placeholder.complete(cached);
+            return placeholder;
+        }
+
+        modelStats.misses.increment();
+        CompletableFuture<String> call;
+        try {
+            call = loader.get();
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((response, error) -> {
+            if (error == null) {
+                store(key, response, modelStats);
+            }
+            inFlight.remove(key, placeholder);
+            if (error == null) {
+                placeholder.complete(response);
+            } else {
+                placeholder.completeExceptionally(error);
+            }
+        });
+        return placeholder;
+    }
+
+    public Map<String, Stats> stats() {
+        return new TreeMap<>(stats);
+    }
+
+    public void printSummary() {
+        System.out.println("\nRESPONSE CACHE");
+        System.out.println("-".repeat(50));
+        stats().forEach((modelId, s) -> System.out.printf(
+            "%-35s: %d hits (%d memory, %d disk), %d shared, %d misses, %.1f KB served, %.1f KB stored%n",
+            modelId, s.memoryHits.sum() + s.diskHits.sum(), s.memoryHits.sum(), s.diskHits.sum(),
+            s.sharedInFlight.sum(), s.misses.sum(), s.bytesServed.sum() / 1024.0, s.bytesStored.sum() / 1024.0));
+        System.out.println("=".repeat(50));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private Stats statsFor(String modelId) {
+        return stats.computeIfAbsent(modelId, id -> new Stats());
+    }
+
+    private String lookup(String key, Stats modelStats) {
+        byte[] bytes;
+        synchronized (memory) {
+            bytes = memory.get(key);
+        }
+        if (bytes != null) {
+            modelStats.memoryHits.increment();
+            modelStats.bytesServed.add(bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        long[] location = diskIndex.get(key);
+        if (location == null) {
+            return null;
+        }
+        try {
+            bytes = log.read(location[0], (int) location[1]);
+        } catch (IOException e) {
+            System.err.printf("Response cache read failed, treating as miss: %s%n", e.getMessage());
+            return null;
+        }
+        modelStats.diskHits.increment();
+        modelStats.bytesServed.add(bytes.length);
+        remember(key, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void store(String key, String response, Stats modelStats) {
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        remember(key, bytes);
+        modelStats.bytesStored.add(bytes.length);
+        if (log != null && !diskIndex.containsKey(key)) {
+            try {
+                appendLog(key, bytes);
+            } catch (IOException e) {
+                System.err.printf("Response cache write failed: %s%n", e.getMessage());
+            }
+        }
+    }
+
+    private void remember(String key, byte[] bytes) {
+        if (bytes.length > maxMemoryBytes) {
+            return;
+        }
+        synchronized (memory) {
+            byte[] previous = memory.put(key, bytes);
+            memoryBytes += bytes.length - (previous == null ? 0 : previous.length);
+            Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                memoryBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private void appendLog(String key, byte[] value) throws IOException {
+        long offset = log.append(HexFormat.of().parseHex(key), value);
+        diskIndex.put(key, new long[] {offset + DIGEST_BYTES, value.length});
+    }
+
+    private void index(long bodyOffset, byte[] body) {
+        String key = HexFormat.of().formatHex(body, 0, DIGEST_BYTES);
+        diskIndex.put(key, new long[] {bodyOffset + DIGEST_BYTES, body.length - DIGEST_BYTES});
+    }
+}
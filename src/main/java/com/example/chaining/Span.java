@@ -0,0 +1,155 @@
+package com.example.chaining;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One model call made on behalf of a pipeline stage, from the moment the agent
+ * accepts it until its text is complete, including rate-limit waits and retries.
+ *
+ * Spans of one pipeline run share a trace id (W3C trace-context sized: 16 bytes
+ * for the trace, 8 for the span). The agent, the SDK interceptor and the
+ * streaming callbacks fill in the measurements as the call progresses; each step
+ * happens-before the next through the call's futures, so the fields need no
+ * locking. Cancelling and finishing can race when a hedged duplicate wins, so
+ * those two are synchronized. All durations are in nanoseconds and -1 means
+ * "not observed".
+ */
+class Span {
+    public final String traceId;
+    public final String spanId;
+    public final String parentSpanId;
+    public final String name;
+    public final String modelId;
+    public final long startEpochMillis = System.currentTimeMillis();
+    final long startNanos = System.nanoTime();
+
+    /** "off" without a response cache, otherwise "miss" or "hit" (which includes joining an identical call in flight) */
+    String cache = "off";
+    int attempts;
+    int throttles;
+    long limiterWaitNanos;
+    long backoffNanos;
+    long queueWaitNanos;
+    long encodeNanos;
+    long decodeNanos;
+    /** SDK time from entering the client to handing the signed request to the HTTP client, last attempt */
+    long sdkNanos = -1;
+    /** From sending the request to receiving the response headers, last attempt */
+    long timeToFirstByteNanos = -1;
+    /** From the start of the span to the first text chunk, as seen by downstream stages */
+    long timeToFirstTokenNanos = -1;
+    long durationNanos = -1;
+    int inputTokens = -1;
+    int outputTokens = -1;
+    long requestBytes;
+    long responseBytes;
+    String status;
+    String errorType;
+
+    /** Set on hedged calls so they go through the async client, whose requests can be aborted */
+    boolean abortable;
+    /** The other call whose answer the stage used instead of this one's, if any */
+    volatile Span answeredBy;
+    /** Set on a stage span whose own call ended before the stage did, so its duration is no call latency */
+    volatile boolean endedBeforeStage;
+
+    // Per-attempt timestamps written by SpanInterceptor
+    long sdkStartNanos;
+    long sentNanos;
+
+    private boolean cancelled;
+    private Runnable abort;
+
+    Span(String traceId, String parentSpanId, String name, String modelId) {
+        this.traceId = traceId;
+        this.spanId = randomHex(8);
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.modelId = modelId;
+    }
+
+    /**
+     * A span with a trace of its own, for calls made outside a pipeline run.
+     */
+    static Span root(String name, String modelId) {
+        return new Span(newTraceId(), null, name, modelId);
+    }
+
+    static String newTraceId() {
+        return randomHex(16);
+    }
+
+    static String newSpanId() {
+        return randomHex(8);
+    }
+
+    void firstToken() {
+        if (timeToFirstTokenNanos < 0) {
+            timeToFirstTokenNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * @return false if the span had already been finished, in which case nothing changes
+     */
+    synchronized boolean finish(Throwable error) {
+        if (durationNanos >= 0) {
+            return false;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        if (error == null) {
+            status = "success";
+        } else {
+            status = cancelled ? "cancelled" : BackoffPolicy.isThrottling(error) ? "throttled" : "error";
+            errorType = BackoffPolicy.rootCause(error).getClass().getSimpleName();
+        }
+        return true;
+    }
+
+    /**
+     * Registers how to abort the attempt now in flight; runs it at once if the call
+     * has already been cancelled.
+     */
+    synchronized void onCancel(Runnable abort) {
+        if (cancelled) {
+            abort.run();
+        } else {
+            this.abort = abort;
+        }
+    }
+
+    /**
+     * Marks the call as no longer wanted: the attempt in flight is aborted and no
+     * further attempts are made.
+     */
+    synchronized void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            if (abort != null) {
+                abort.run();
+            }
+        }
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    boolean calledModel() {
+        return !"hit".equals(cache);
+    }
+
+    Duration duration() {
+        return Duration.ofNanos(Math.max(0, durationNanos));
+    }
+
+    private static String randomHex(int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder hex = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) {
+            hex.append(Character.forDigit(random.nextInt(16), 16)).append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return hex.toString();
+    }
+}
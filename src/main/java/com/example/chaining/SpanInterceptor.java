@@ -0,0 +1,42 @@
+package com.example.chaining;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Splits each SDK call into client-side time (marshalling and signing) and time
+ * to first byte (network plus the model's time to produce response headers),
+ * writing both onto the Span the agent attached to the request.
+ *
+ * Registered once on each Bedrock client; requests without a span pass through.
+ */
+class SpanInterceptor implements ExecutionInterceptor {
+    static final ExecutionAttribute<Span> SPAN = new ExecutionAttribute<>("PipelineSpan");
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes attributes) {
+        Span span = attributes.getAttribute(SPAN);
+        if (span != null) {
+            span.sdkStartNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes) {
+        Span span = attributes.getAttribute(SPAN);
+        if (span != null) {
+            span.sentNanos = System.nanoTime();
+            span.sdkNanos = span.sentNanos - span.sdkStartNanos;
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes attributes) {
+        Span span = attributes.getAttribute(SPAN);
+        if (span != null) {
+            span.timeToFirstByteNanos = System.nanoTime() - span.sentNanos;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.chaining;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Declarative dependency graph of pipeline stages.
+ *
+ * Each stage names the stages whose output it consumes. A stage starts as soon
+ * as its own prompt is ready, so independent stages run concurrently and the
+ * pipeline takes as long as its longest dependency chain rather than the sum
+ * of every model call. Stages must be added after their dependencies, which
+ * keeps the graph acyclic by construction.
+ *
+ * Each run is one trace: every stage's model call gets a Span under the run's
+ * trace id, so exported spans can be joined back into the pipeline they came from.
+ *
+ * Stage outputs are held as Artifacts and prompts reference them, so a run keeps
+ * one copy of each output however many stages consume it; result() decodes them.
+ *
+ * With a CheckpointLog, each stage's output is checkpointed as it completes, and
+ * a resumed run takes a stage's output from its checkpoint instead of calling the
+ * model, provided every stage it depends on was resumed from the checkpoints
+ * its own was built on.
+ */
+class StageGraph {
+
+    public interface PromptBuilder {
+        CompletableFuture<Prompt> build(Map<String, ChunkPublisher> inputs);
+    }
+
+    public interface StageListener {
+        default void onStart(Stage stage) {
+        }
+
+        default void onComplete(Stage stage, Artifact output, NodeTiming timing) {
+        }
+
+        default void onResume(Stage stage, CheckpointLog.Checkpoint checkpoint) {
+        }
+    }
+
+    public enum State {
+        SUCCESS, FAILED, SKIPPED, RESUMED
+    }
+
+    public static class Stage {
+        public final String id;
+        public final String displayName;
+        public final BedrockAgent agent;
+        public final List<String> dependencies;
+        public final PromptBuilder promptBuilder;
+
+        Stage(String id, String displayName, BedrockAgent agent, List<String> dependencies, PromptBuilder promptBuilder) {
+            this.id = id;
+            this.displayName = displayName;
+            this.agent = agent;
+            this.dependencies = dependencies;
+            this.promptBuilder = promptBuilder;
+        }
+    }
+
+    public static class NodeTiming {
+        public final String id;
+        public final String name;
+        public final State state;
+        public final Duration waitForInputs;
+        public final Duration duration;
+        public final Duration timeToFirstToken;
+        public final Throwable error;
+        /** The stage's model call; null if the stage never started or was resumed */
+        public final Span span;
+
+        NodeTiming(String id, String name, State state, Duration waitForInputs, Duration duration,
+                   Duration timeToFirstToken, Throwable error, Span span) {
+            this.id = id;
+            this.name = name;
+            this.state = state;
+            this.waitForInputs = waitForInputs;
+            this.duration = duration;
+            this.timeToFirstToken = timeToFirstToken;
+            this.error = error;
+            this.span = span;
+        }
+    }
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    public StageGraph addStage(String id, String displayName, BedrockAgent agent,
+                               List<String> dependencies, PromptBuilder promptBuilder) {
+        if (stages.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate stage: " + id);
+        }
+        for (String dependency : dependencies) {
+            if (!stages.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage " + id + " depends on unknown stage " + dependency);
+            }
+        }
+        stages.put(id, new Stage(id, displayName, agent, List.copyOf(dependencies), promptBuilder));
+        return this;
+    }
+
+    public List<Stage> stages() {
+        return new ArrayList<>(stages.values());
+    }
+
+    public Execution run(boolean streaming, StageListener listener) {
+        return new Execution(streaming, listener, null);
+    }
+
+    /**
+     * @param checkpoints where completed stages are recorded and, when resuming, read back; may be null
+     */
+    public Execution run(boolean streaming, StageListener listener, CheckpointLog.Run checkpoints) {
+        return new Execution(streaming, listener, checkpoints);
+    }
+
+    public class Execution {
+        private final Instant graphStart = Instant.now();
+        private final String traceId = Span.newTraceId();
+        private final String rootSpanId = Span.newSpanId();
+        private final Map<String, CompletableFuture<ChunkPublisher>> started = new HashMap<>();
+        private final Map<String, CompletableFuture<Artifact>> outputs = new LinkedHashMap<>();
+        private final Map<String, NodeTiming> timings = Collections.synchronizedMap(new HashMap<>());
+        private final Map<String, CompletableFuture<Artifact>> artifacts = new ConcurrentHashMap<>();
+        private final Map<String, String> digests = new ConcurrentHashMap<>();
+        private final CheckpointLog.Run checkpoints;
+        private final CompletableFuture<Void> completion;
+
+        Execution(boolean streaming, StageListener listener, CheckpointLog.Run checkpoints) {
+            this.checkpoints = checkpoints;
+            for (Stage stage : stages.values()) {
+                if (checkpoints != null && resume(stage, listener)) {
+                    continue;
+                }
+                List<CompletableFuture<ChunkPublisher>> inputs = new ArrayList<>();
+                for (String dependency : stage.dependencies) {
+                    inputs.add(started.get(dependency));
+                }
+
+                Instant[] startTime = new Instant[1];
+                Span[] span = new Span[1];
+                CompletableFuture<ChunkPublisher> stageStarted = CompletableFuture
+                    .allOf(inputs.toArray(new CompletableFuture<?>[0]))
+                    .thenCompose(ignored -> {
+                        Map<String, ChunkPublisher> upstream = new LinkedHashMap<>();
+                        for (int i = 0; i < stage.dependencies.size(); i++) {
+                            upstream.put(stage.dependencies.get(i), inputs.get(i).join());
+                        }
+                        return stage.promptBuilder.build(upstream);
+                    })
+                    .thenApply(prompt -> {
+                        startTime[0] = Instant.now();
+                        span[0] = new Span(traceId, rootSpanId, stage.id, stage.agent.getModelId());
+                        listener.onStart(stage);
+                        // Both modes expose a publisher; without streaming it emits one whole-response chunk
+                        return streaming
+                            ? stage.agent.streamAsync(prompt, span[0])
+                            : ChunkPublisher.from(stage.agent.runAsync(prompt, span[0]));
+                    });
+
+                CompletableFuture<Artifact> output = stageStarted.thenCompose(ChunkPublisher::artifact);
+                CompletableFuture<Artifact> recorded = output.handle((artifact, failure) -> {
+                    NodeTiming timing = record(stage, startTime[0], span[0], stageStarted, failure);
+                    if (failure == null) {
+                        checkpoint(stage, artifact, timing);
+                        listener.onComplete(stage, artifact, timing);
+                    }
+                    return artifact;
+                });
+
+                started.put(stage.id, stageStarted);
+                artifacts.put(stage.id, output);
+                // Settle only after the timing is recorded so await() always sees it
+                outputs.put(stage.id, recorded.thenCompose(ignored -> output));
+            }
+            completion = CompletableFuture.allOf(outputs.values().toArray(new CompletableFuture<?>[0]));
+        }
+
+        /**
+         * Takes the stage's output from its checkpoint if one was built on exactly the
+         * upstream outputs this run has resumed.
+         *
+         * @return whether the stage was resumed
+         */
+        private boolean resume(Stage stage, StageListener listener) {
+            Map<String, String> inputs = new LinkedHashMap<>();
+            for (String dependency : stage.dependencies) {
+                NodeTiming upstream = timings.get(dependency);
+                if (upstream == null || upstream.state != State.RESUMED) {
+                    return false;
+                }
+                inputs.put(dependency, digests.get(dependency));
+            }
+            CheckpointLog.Checkpoint checkpoint = checkpoints.reusable(stage.id, stage.agent.getModelId(), inputs);
+            if (checkpoint == null) {
+                return false;
+            }
+            CompletableFuture<Artifact> output =
+                CompletableFuture.completedFuture(ArtifactStore.shared().store(checkpoint.output));
+            digests.put(stage.id, checkpoint.digest);
+            timings.put(stage.id, new NodeTiming(stage.id, stage.displayName, State.RESUMED, Duration.ZERO,
+                Duration.ZERO, null, null, null));
+            started.put(stage.id, CompletableFuture.completedFuture(ChunkPublisher.of(output.join())));
+            artifacts.put(stage.id, output);
+            outputs.put(stage.id, output);
+            listener.onResume(stage, checkpoint);
+            return true;
+        }
+
+        /**
+         * Appends the stage's checkpoint without waiting for it to be synced.
+         */
+        private void checkpoint(Stage stage, Artifact output, NodeTiming timing) {
+            if (checkpoints == null) {
+                return;
+            }
+            Map<String, String> inputs = new LinkedHashMap<>();
+            for (String dependency : stage.dependencies) {
+                // The upstream text is complete: this stage's prompt was built from it
+                inputs.put(dependency, digests.computeIfAbsent(dependency,
+                    id -> CheckpointLog.digest(artifacts.get(id).join())));
+            }
+            Span span = timing.span;
+            checkpoints.record(new CheckpointLog.Checkpoint(stage.id, stage.agent.getModelId(), output.text(), inputs,
+                traceId, timing.duration.toMillis(), span != null ? span.inputTokens : -1,
+                span != null ? span.outputTokens : -1, System.currentTimeMillis()));
+        }
+
+        private NodeTiming record(Stage stage, Instant startTime, Span span,
+                                  CompletableFuture<ChunkPublisher> stageStarted, Throwable failure) {
+            Instant now = Instant.now();
+            NodeTiming timing;
+            if (startTime == null) {
+                // Never sent: an upstream stage failed, or this stage's prompt could not be built
+                timing = new NodeTiming(stage.id, stage.displayName, State.SKIPPED,
+                    Duration.between(graphStart, now), Duration.ZERO, null, unwrap(failure), null);
+            } else {
+                ChunkPublisher publisher = stageStarted.isCompletedExceptionally() ? null : stageStarted.join();
+                Duration firstToken = publisher == null || publisher.timeToFirstToken().isCompletedExceptionally()
+                    ? null : publisher.timeToFirstToken().getNow(null);
+                timing = new NodeTiming(stage.id, stage.displayName, failure == null ? State.SUCCESS : State.FAILED,
+                    Duration.between(graphStart, startTime), Duration.between(startTime, now),
+                    firstToken, unwrap(failure), span);
+            }
+            timings.put(stage.id, timing);
+            return timing;
+        }
+
+        public String traceId() {
+            return traceId;
+        }
+
+        /**
+         * Completes with the stage's output publisher once the stage has started or
+         * been resumed; the publisher replays chunks already emitted to late subscribers.
+         */
+        public CompletableFuture<ChunkPublisher> publisher(String stageId) {
+            CompletableFuture<ChunkPublisher> publisher = started.get(stageId);
+            if (publisher == null) {
+                throw new IllegalArgumentException("Unknown stage: " + stageId);
+            }
+            return publisher;
+        }
+
+        /**
+         * Completes with the outputs keyed by stage id once every stage has settled,
+         * or exceptionally with the first stage failure.
+         */
+        public CompletableFuture<Map<String, String>> result() {
+            return completion.handle((ignored, failure) -> {
+                if (failure != null) {
+                    throw new CompletionException(firstFailure().orElse(unwrap(failure)));
+                }
+                Map<String, String> results = new LinkedHashMap<>();
+                outputs.forEach((id, output) -> results.put(id, output.join().text()));
+                return results;
+            });
+        }
+
+        /**
+         * Blocking form of {@link #result()} that rethrows the stage failure itself.
+         */
+        public Map<String, String> await() throws Exception {
+            try {
+                return result().join();
+            } catch (CompletionException e) {
+                Throwable cause = unwrap(e);
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+
+        private Optional<Throwable> firstFailure() {
+            return timings().stream()
+                .filter(t -> t.state == State.FAILED)
+                .map(t -> t.error)
+                .filter(e -> e != null)
+                .findFirst();
+        }
+
+        /**
+         * Per-stage timing in declaration order. Stages that have not settled yet are omitted.
+         */
+        public List<NodeTiming> timings() {
+            List<NodeTiming> ordered = new ArrayList<>();
+            for (String id : stages.keySet()) {
+                NodeTiming timing = timings.get(id);
+                if (timing != null) {
+                    ordered.add(timing);
+                }
+            }
+            return ordered;
+        }
+
+        /**
+         * The dependency chain that finished last, i.e. the one that determined total pipeline time.
+         */
+        public List<NodeTiming> criticalPath() {
+            Map<String, Duration> finishedAt = new HashMap<>();
+            Map<String, String> slowestInput = new HashMap<>();
+            String last = null;
+            for (Stage stage : stages.values()) {
+                NodeTiming timing = timings.get(stage.id);
+                // Skipped and resumed stages took no time of their own in this run
+                if (timing == null || timing.state == State.SKIPPED || timing.state == State.RESUMED) {
+                    continue;
+                }
+                finishedAt.put(stage.id, timing.waitForInputs.plus(timing.duration));
+                for (String dependency : stage.dependencies) {
+                    Duration candidate = finishedAt.get(dependency);
+                    String current = slowestInput.get(stage.id);
+                    if (candidate != null && (current == null || candidate.compareTo(finishedAt.get(current)) > 0)) {
+                        slowestInput.put(stage.id, dependency);
+                    }
+                }
+                if (last == null || finishedAt.get(stage.id).compareTo(finishedAt.get(last)) > 0) {
+                    last = stage.id;
+                }
+            }
+
+            List<NodeTiming> path = new ArrayList<>();
+            for (String id = last; id != null; id = slowestInput.get(id)) {
+                path.add(0, timings.get(id));
+            }
+            return path;
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        while (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+
+/**
+ * Amazon Titan Text models.
+ */
+class TitanCodec implements ModelCodec {
+    // Titan Express returns response in results[0].outputText structure
+    private static final Object[] TEXT = {"results", 0, "outputText"};
+    private static final Object[] INPUT_TOKENS = {"inputTextTokenCount"};
+    private static final Object[] OUTPUT_TOKENS = {"results", 0, "tokenCount"};
+    private static final Object[] CHUNK_TEXT = {"outputText"};
+
+    @Override
+    public byte[] encodeRequest(String systemPrompt, Prompt userInput, int maxTokens, double temperature)
+            throws IOException {
+        // Titan has no separate system prompt field
+        ByteArrayBuilder out = new ByteArrayBuilder((int) userInput.size() + 128);
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeFieldName("inputText");
+            userInput.writeJsonString(json);
+            json.writeObjectFieldStart("textGenerationConfig");
+            json.writeNumberField("maxTokenCount", maxTokens);
+            json.writeNumberField("temperature", temperature);
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Decoded decodeResponse(byte[] body) throws IOException {
+        return ModelCodec.decode(body, TEXT, INPUT_TOKENS, OUTPUT_TOKENS);
+    }
+
+    @Override
+    public Decoded decodeChunk(byte[] chunk) throws IOException {
+        return ModelCodec.decodeStreamChunk(chunk, CHUNK_TEXT);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArtifactStoreTest {
+    private static final String TEXT = "aé中😀b\ud800c\udc00d\ud83d";
+
+    @Test
+    void encoderMatchesStringGetBytesAtEverySplit() {
+        byte[] expected = TEXT.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= TEXT.length(); split++) {
+            ArtifactStore.Encoder encoder = new ArtifactStore.Encoder();
+            encoder.append(TEXT.substring(0, split));
+            encoder.append(TEXT.substring(split));
+            Artifact artifact = encoder.finish();
+
+            assertArrayEquals(expected, toArray(artifact.bytes()), "split at " + split);
+            assertEquals(ArtifactStore.utf8Length(TEXT), artifact.size());
+        }
+    }
+
+    @Test
+    void encoderPairsASurrogateSplitAcrossChunks() {
+        ArtifactStore.Encoder encoder = new ArtifactStore.Encoder();
+        encoder.append("x\ud83d");
+        encoder.append("\ude00y");
+
+        assertEquals("x😀y", encoder.finish().text());
+    }
+
+    @Test
+    void textIsDecodedOnEveryCall() {
+        ArtifactStore.Encoder encoder = new ArtifactStore.Encoder();
+        encoder.append("one ");
+        encoder.append("two");
+        Artifact artifact = encoder.finish();
+
+        assertEquals("one two", artifact.text());
+        assertNotSame(artifact.text(), artifact.text());
+        assertEquals(7, artifact.length());
+    }
+
+    @Test
+    void largeOutputsMoveToAMappedFileWithTheSameContent(@TempDir Path directory) throws Exception {
+        ArtifactStore store = new ArtifactStore(1024, directory);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 4096) {
+            text.append("café ");
+        }
+        Artifact artifact = store.store(text.toString());
+        Artifact slice = artifact.slice(6, 100);
+        String sliceText = new String(toArray(slice.bytes()), StandardCharsets.UTF_8);
+
+        awaitMapped(artifact);
+        assertTrue(slice.isMapped());
+        assertArrayEquals(text.toString().getBytes(StandardCharsets.UTF_8), toArray(artifact.bytes()));
+        assertEquals(sliceText, new String(toArray(slice.bytes()), StandardCharsets.UTF_8));
+        // The file is unlinked once mapped
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void aSpilledArtifactKeepsNoHeapCopyOfItsText(@TempDir Path directory) throws Exception {
+        ArtifactStore store = new ArtifactStore(1024, directory);
+        Artifact artifact = store.store("x".repeat(4096));
+        assertEquals(4096, artifact.text().length());
+
+        awaitMapped(artifact);
+        for (Field field : Artifact.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            Object value = field.get(artifact);
+            assertFalse(value instanceof String || value instanceof byte[], field.getName());
+            if (value instanceof ByteBuffer buffer) {
+                assertTrue(buffer.isDirect(), field.getName());
+            }
+        }
+        assertEquals("x".repeat(4096), artifact.text());
+    }
+
+    @Test
+    void smallOutputsStayOnTheHeap() throws Exception {
+        ArtifactStore store = new ArtifactStore(1024, null);
+        Artifact artifact = store.store("short");
+        Thread.sleep(50);
+
+        assertFalse(artifact.isMapped());
+        assertSame(Artifact.EMPTY, store.store(""));
+    }
+
+    private static void awaitMapped(Artifact artifact) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!artifact.isMapped() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(artifact.isMapped());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.bedrockruntime.model.ServiceQuotaExceededException;
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackoffPolicyTest {
+
+    @Test
+    void throttlingIsRetried() {
+        Throwable error = new CompletionException(ThrottlingException.builder().statusCode(429).build());
+
+        assertTrue(BackoffPolicy.isThrottling(error));
+        assertTrue(BackoffPolicy.isRetryable(error));
+    }
+
+    @Test
+    void anExceededQuotaIsNeitherThrottlingNorRetried() {
+        // Even if it arrives with a 429 status
+        Throwable error = new CompletionException(ServiceQuotaExceededException.builder().statusCode(429).build());
+
+        assertFalse(BackoffPolicy.isThrottling(error));
+        assertFalse(BackoffPolicy.isRetryable(error));
+    }
+}
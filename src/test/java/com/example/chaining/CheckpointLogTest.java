@@ -0,0 +1,43 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CheckpointLogTest {
+    @Test
+    void stagesAfterADamagedRecordAreStillResumed(@TempDir Path directory) throws Exception {
+        try (CheckpointLog checkpoints = new CheckpointLog(directory, Duration.ofMillis(1))) {
+            CheckpointLog.Run run = checkpoints.run("run", true);
+            List<CompletableFuture<Void>> synced = new ArrayList<>();
+            for (String stage : List.of("a", "b", "c")) {
+                synced.add(run.record(checkpoint(stage)));
+            }
+            CompletableFuture.allOf(synced.toArray(new CompletableFuture<?>[0])).join();
+        }
+        Path file = directory.resolve("checkpoints.log");
+        List<Long> offsets = new ArrayList<>();
+        RecordLog.open(file, "Test log", 1, (offset, body) -> offsets.add(offset)).close();
+        RecordLogTest.corrupt(file, offsets.get(1) + 10);
+
+        try (CheckpointLog checkpoints = new CheckpointLog(directory, Duration.ofMillis(1))) {
+            CheckpointLog.Run run = checkpoints.run("run", true);
+            assertEquals("output a", run.reusable("a", "model", Map.of()).output);
+            assertNull(run.reusable("b", "model", Map.of()));
+            assertEquals("output c", run.reusable("c", "model", Map.of()).output);
+        }
+    }
+
+    private static CheckpointLog.Checkpoint checkpoint(String stage) {
+        return new CheckpointLog.Checkpoint(stage, "model", "output " + stage, Map.of(), "trace", 1, 1, 1, 1);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkPublisherTest {
+
+    @Test
+    void chunksAreDeliveredOnlyAsDemanded() {
+        ChunkPublisher publisher = new ChunkPublisher();
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        publisher.emit("a");
+        publisher.emit("b");
+        publisher.emit("c");
+        publisher.complete();
+        assertEquals(List.of(), recorder.chunks);
+
+        recorder.subscription.request(2);
+        assertEquals(List.of("a", "b"), recorder.chunks);
+        assertFalse(recorder.completed);
+
+        recorder.subscription.request(1);
+        assertEquals(List.of("a", "b", "c"), recorder.chunks);
+        assertTrue(recorder.completed);
+    }
+
+    @Test
+    void aCancelledSubscriberReceivesNothingMore() {
+        ChunkPublisher publisher = new ChunkPublisher();
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publisher.emit("a");
+
+        recorder.subscription.cancel();
+        publisher.emit("b");
+        publisher.complete();
+
+        assertEquals(List.of("a"), recorder.chunks);
+        assertFalse(recorder.completed);
+    }
+
+    @Test
+    void aLateSubscriberGetsTheOutputFromTheStart() {
+        ChunkPublisher publisher = new ChunkPublisher();
+        publisher.emit("a");
+        publisher.emit("b");
+
+        Recorder during = new Recorder();
+        publisher.subscribe(during);
+        during.subscription.request(Long.MAX_VALUE);
+        publisher.emit("c");
+        publisher.complete();
+        assertEquals(List.of("a", "b", "c"), during.chunks);
+        assertTrue(during.completed);
+
+        // After completion the chunks are dropped and the whole text arrives as one
+        Recorder after = new Recorder();
+        publisher.subscribe(after);
+        after.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of("abc"), after.chunks);
+        assertTrue(after.completed);
+        assertEquals("abc", publisher.text().join());
+    }
+
+    @Test
+    void aFailureReachesSubscribersAfterTheChunksBeforeIt() {
+        ChunkPublisher publisher = new ChunkPublisher();
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publisher.emit("a");
+        IllegalStateException failure = new IllegalStateException("stream broke");
+        publisher.fail(failure);
+
+        assertEquals(List.of("a"), recorder.chunks);
+        assertSame(failure, recorder.error);
+        assertTrue(publisher.artifact().isCompletedExceptionally());
+    }
+
+    @Test
+    void aWholeResponseIsPublishedAsOneChunk() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        ChunkPublisher publisher = ChunkPublisher.from(response);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertFalse(publisher.hasChunks());
+
+        response.complete("whole text");
+        assertEquals(List.of("whole text"), recorder.chunks);
+        assertTrue(recorder.completed);
+        assertEquals(10, publisher.artifact().join().size());
+    }
+
+    private static final class Recorder implements Flow.Subscriber<String> {
+        final List<String> chunks = new ArrayList<>();
+        Flow.Subscription subscription;
+        boolean completed;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(String chunk) {
+            chunks.add(chunk);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryJobQueueTest {
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void eachJobIsLeasedToOneWorker(@TempDir Path directory) throws Exception {
+        DirectoryJobQueue first = new DirectoryJobQueue(directory, "first", LEASE);
+        DirectoryJobQueue second = new DirectoryJobQueue(directory, "second", LEASE);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(first.enqueue("job" + i, "request " + i));
+        }
+        assertFalse(first.enqueue("job0", "again"));
+
+        Set<String> claimed = new HashSet<>();
+        JobQueue.Lease lease;
+        while ((lease = (claimed.size() % 2 == 0 ? first : second).claim()) != null) {
+            assertTrue(claimed.add(lease.id()), "claimed twice: " + lease.id());
+            assertEquals("request " + lease.id().substring(3), lease.request());
+        }
+        assertEquals(5, claimed.size());
+        assertEquals(2, first.liveWorkers());
+        assertFalse(first.isDrained());
+    }
+
+    @Test
+    void jobsOfAWorkerWhoseHeartbeatsStoppedAreReclaimed(@TempDir Path directory) throws Exception {
+        DirectoryJobQueue dead = new DirectoryJobQueue(directory, "dead", LEASE);
+        DirectoryJobQueue live = new DirectoryJobQueue(directory, "live", LEASE);
+        dead.enqueue("job", "request");
+        JobQueue.Lease lost = dead.claim();
+        assertNotNull(lost);
+        assertNull(live.claim());
+
+        Files.setLastModifiedTime(directory.resolve("workers").resolve("dead"),
+            FileTime.from(Instant.now().minus(LEASE).minusSeconds(1)));
+        JobQueue.Lease reclaimed = live.claim();
+
+        assertNotNull(reclaimed);
+        assertEquals("job", reclaimed.id());
+        assertEquals(lost.checkpointDirectory(), reclaimed.checkpointDirectory());
+        assertFalse(lost.isHeld());
+        assertFalse(lost.complete(result("job", "SUCCESS")));
+        assertTrue(reclaimed.complete(result("job", "SUCCESS")));
+        assertEquals(1, live.liveWorkers());
+        assertTrue(live.isDrained());
+    }
+
+    @Test
+    void theFirstResultIsKept(@TempDir Path directory) throws Exception {
+        DirectoryJobQueue queue = new DirectoryJobQueue(directory, "worker", LEASE);
+        queue.enqueue("job", "request");
+        JobQueue.Lease first = queue.claim();
+        first.release();
+        JobQueue.Lease second = queue.claim();
+
+        assertTrue(second.complete(result("job", "SUCCESS")));
+        // The first lease had been released, so it no longer holds the job
+        assertFalse(first.complete(result("job", "FAILED")));
+        assertEquals("SUCCESS", objectMapper.readTree(directory.resolve("done").resolve("job.json").toFile())
+            .get("status").asText());
+        assertFalse(queue.enqueue("job", "request"));
+    }
+
+    @Test
+    void aFailedJobCanBeEnqueuedAgainAndKeepsItsCheckpoints(@TempDir Path directory) throws Exception {
+        DirectoryJobQueue queue = new DirectoryJobQueue(directory, "worker", LEASE);
+        queue.enqueue("job", "request");
+        JobQueue.Lease lease = queue.claim();
+        Files.createDirectories(lease.checkpointDirectory());
+        assertTrue(lease.complete(result("job", "FAILED")));
+        assertTrue(Files.exists(lease.checkpointDirectory()));
+
+        assertTrue(queue.enqueue("job", "request"));
+        JobQueue.Lease retry = queue.claim();
+        assertTrue(retry.complete(result("job", "SUCCESS")));
+        assertFalse(Files.exists(retry.checkpointDirectory()));
+    }
+
+    @Test
+    void closingDeregistersTheWorker(@TempDir Path directory) throws Exception {
+        DirectoryJobQueue queue = new DirectoryJobQueue(directory, "worker", LEASE);
+        queue.heartbeat();
+        assertEquals(1, queue.liveWorkers());
+        queue.close();
+
+        assertEquals(0, queue.liveWorkers());
+        assertThrows(IllegalArgumentException.class, () -> queue.enqueue("../escape", "request"));
+    }
+
+    private ObjectNode result(String id, String status) {
+        return objectMapper.createObjectNode().put("id", id).put("status", status);
+    }
+}
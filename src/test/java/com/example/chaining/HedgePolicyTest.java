@@ -0,0 +1,81 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgePolicyTest {
+
+    @Test
+    void aZeroFractionNeverHedges() {
+        HedgePolicy policy = new HedgePolicy(95, 1, Duration.ZERO, 0);
+        for (int i = 0; i < 100; i++) {
+            policy.delayFor("hedge-test-zero", false);
+        }
+
+        assertFalse(policy.tryHedge());
+    }
+
+    @Test
+    void theFirstSlowCallOfARunHedges() {
+        HedgePolicy policy = HedgePolicy.defaults();
+        policy.delayFor("hedge-test-first", false);
+
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+    }
+
+    @Test
+    void laterHedgesStayWithinTheFractionOfCalls() {
+        HedgePolicy policy = new HedgePolicy(95, 1, Duration.ZERO, 0.1);
+        policy.delayFor("hedge-test-fraction", false);
+        assertTrue(policy.tryHedge());
+
+        // The first call's tenth of a hedge is still in the budget
+        for (int i = 0; i < 8; i++) {
+            policy.delayFor("hedge-test-fraction", false);
+        }
+        assertFalse(policy.tryHedge());
+
+        policy.delayFor("hedge-test-fraction", false);
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+    }
+
+    @Test
+    void quietSpellsSaveOnlyAFewHedges() {
+        HedgePolicy policy = new HedgePolicy(95, 1, Duration.ZERO, 0.1);
+        for (int i = 0; i < 1000; i++) {
+            policy.delayFor("hedge-test-saved", false);
+        }
+
+        int hedges = 0;
+        while (policy.tryHedge()) {
+            hedges++;
+        }
+        assertEquals(3, hedges);
+    }
+
+    @Test
+    void cancelledHedgeLosersStayOutOfTheLatencyWindow() {
+        ModelHealth health = ModelHealth.forModel("hedge-test-health");
+        for (int i = 0; i < 10; i++) {
+            health.record(span("success", Duration.ofSeconds(2)));
+            health.record(span("cancelled", Duration.ofMillis(100)));
+        }
+
+        assertEquals(Duration.ofSeconds(2), health.latency(50, 1));
+        assertEquals(0.0, health.errorRate());
+    }
+
+    private static Span span(String status, Duration duration) {
+        Span span = Span.root("test", "hedge-test-health");
+        span.status = status;
+        span.durationNanos = duration.toNanos();
+        return span;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgingAgentTest {
+    private static final String ANSWER = "{\"content\":[{\"type\":\"text\",\"text\":\"answer\"}],"
+        + "\"usage\":{\"input_tokens\":10,\"output_tokens\":20}}";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Span> recorded = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void aFallbackThatAnswersSettlesTheStageAsSucceeded() {
+        String primary = "anthropic.claude-hedge-test-failing";
+        String fallback = "anthropic.claude-hedge-test-fallback";
+        HedgingAgent agent = agent(Map.of(primary, -1L, fallback, 0L), primary, null, List.of(fallback));
+        Span stage = Span.root("design", primary);
+
+        assertEquals("answer", agent.runAsync(Prompt.of("prompt"), stage).join());
+
+        assertEquals("success", stage.status);
+        assertEquals("design:fallback", stage.answeredBy.name);
+        assertTrue(stage.endedBeforeStage);
+        // The stage is recorded once, after the call that answered it
+        assertEquals(List.of("design:fallback", "design"), names());
+        assertTrue(ModelHealth.forModel(primary).errorRate() > 0);
+    }
+
+    @Test
+    void aHedgeThatWinsSettlesTheStageAsSucceeded() {
+        String primary = "anthropic.claude-hedge-test-slow";
+        String fallback = "anthropic.claude-hedge-test-fast";
+        HedgePolicy policy = new HedgePolicy(95, 1000, Duration.ofMillis(50), 0.1);
+        HedgingAgent agent = agent(Map.of(primary, 5000L, fallback, 0L), primary, policy, List.of(fallback));
+        Span stage = Span.root("design", primary);
+
+        assertEquals("answer", agent.runAsync(Prompt.of("prompt"), stage).join());
+
+        assertEquals("success", stage.status);
+        assertEquals("design:hedge", stage.answeredBy.name);
+        assertTrue(stage.isCancelled());
+        assertEquals(List.of("design:hedge", "design"), names());
+    }
+
+    @Test
+    void aFirstCallThatAnswersAloneIsRecordedAsItsOwnCall() {
+        String primary = "anthropic.claude-hedge-test-alone";
+        HedgePolicy policy = new HedgePolicy(95, 1000, Duration.ofMillis(200), 0.1);
+        HedgingAgent agent = agent(Map.of(primary, 0L), primary, policy, List.of());
+        Span stage = Span.root("design", primary);
+
+        assertEquals("answer", agent.runAsync(Prompt.of("prompt"), stage).join());
+
+        assertEquals("success", stage.status);
+        assertFalse(stage.endedBeforeStage);
+        assertSame(null, stage.answeredBy);
+        assertEquals(List.of("design"), names());
+    }
+
+    private List<String> names() {
+        return recorded.stream().map(span -> span.name).toList();
+    }
+
+    /**
+     * @param latencies per model, how long its calls take in milliseconds; negative to fail them at once
+     */
+    private HedgingAgent agent(Map<String, Long> latencies, String modelId, HedgePolicy policy,
+                               List<String> fallbacks) {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.addExporter(new MetricsExporter() {
+            @Override
+            public void onSpan(Span span) {
+                recorded.add(span);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        AgentContext context = new AgentContext(null, new StubClient(latencies), executor, true,
+            BackoffPolicy.none(), null, metrics);
+        return new HedgingAgent(context, modelId, "system", policy, fallbacks);
+    }
+
+    private static final class StubClient implements BedrockRuntimeAsyncClient {
+        private final Map<String, Long> latencies;
+
+        StubClient(Map<String, Long> latencies) {
+            this.latencies = latencies;
+        }
+
+        @Override
+        public CompletableFuture<InvokeModelResponse> invokeModel(InvokeModelRequest request) {
+            long latency = latencies.get(request.modelId());
+            if (latency < 0) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Model unavailable"));
+            }
+            return CompletableFuture.supplyAsync(() -> InvokeModelResponse.builder()
+                .contentType("application/json")
+                .body(SdkBytes.fromString(ANSWER, StandardCharsets.UTF_8))
+                .build(), CompletableFuture.delayedExecutor(latency, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelCodecTest {
+    private static final String METRICS = "\"amazon-bedrock-invocationMetrics\":{\"inputTokenCount\":12,"
+        + "\"outputTokenCount\":34,\"invocationLatency\":500}";
+
+    @Test
+    void extractFollowsEveryPathInOnePass() throws Exception {
+        byte[] json = bytes("{\"skipped\":{\"content\":[{\"text\":\"no\"}]},"
+            + "\"content\":[{\"type\":\"image\",\"text\":\"first\"},{\"text\":\"second\",\"nested\":[1,[2]]}],"
+            + "\"usage\":{\"input_tokens\":7,\"flag\":true}}");
+
+        Object[] values = ModelCodec.extract(json,
+            new Object[] {"content", 1, "text"},
+            new Object[] {"content", 0, "text"},
+            new Object[] {"usage", "input_tokens"},
+            new Object[] {"usage", "flag"},
+            new Object[] {"usage", "missing"},
+            new Object[] {"content", 5, "text"},
+            new Object[] {"content"});
+
+        assertArrayEquals(new Object[] {"second", "first", 7, null, null, null, null}, values);
+    }
+
+    @Test
+    void extractRejectsMorePathsThanOnePassCanTrack() {
+        Object[][] paths = new Object[Long.SIZE + 1][];
+        assertThrows(IllegalArgumentException.class, () -> ModelCodec.extract(bytes("{}"), paths));
+    }
+
+    @Test
+    void claudeRoundTrips() throws Exception {
+        ModelCodec codec = ModelCodec.forModel("anthropic.claude-3-haiku-20240307-v1:0");
+        JsonNode request = new ObjectMapper().readTree(codec.encodeRequest("system", "say \"hi\"", 100, 0.5));
+        assertEquals("say \"hi\"", request.at("/messages/0/content").asText());
+        assertEquals("system", request.get("system").asText());
+        assertEquals(100, request.get("max_tokens").asInt());
+
+        assertDecoded("hello", 10, 20, codec.decodeResponse(bytes(
+            "{\"id\":\"msg\",\"content\":[{\"type\":\"text\",\"text\":\"hello\"}],"
+                + "\"usage\":{\"input_tokens\":10,\"output_tokens\":20}}")));
+        assertDecoded(null, -1, -1, codec.decodeResponse(bytes("{\"content\":[]}")));
+        assertDecoded("he", -1, -1, codec.decodeChunk(bytes(
+            "{\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"he\"}}")));
+        assertDecoded("", 12, 34, codec.decodeChunk(bytes("{\"type\":\"message_stop\"," + METRICS + "}")));
+    }
+
+    @Test
+    void titanRoundTrips() throws Exception {
+        ModelCodec codec = ModelCodec.forModel("amazon.titan-text-express-v1");
+        JsonNode request = new ObjectMapper().readTree(codec.encodeRequest("system", "prompt", 100, 0.5));
+        assertEquals("prompt", request.get("inputText").asText());
+        assertEquals(100, request.at("/textGenerationConfig/maxTokenCount").asInt());
+
+        assertDecoded("hello", 10, 20, codec.decodeResponse(bytes(
+            "{\"inputTextTokenCount\":10,\"results\":[{\"tokenCount\":20,\"outputText\":\"hello\","
+                + "\"completionReason\":\"FINISH\"}]}")));
+        assertDecoded("he", -1, -1, codec.decodeChunk(bytes("{\"outputText\":\"he\",\"index\":0}")));
+        assertDecoded("", 12, 34, codec.decodeChunk(bytes("{\"completionReason\":\"FINISH\"," + METRICS + "}")));
+    }
+
+    @Test
+    void novaRoundTrips() throws Exception {
+        ModelCodec codec = ModelCodec.forModel("amazon.nova-lite-v1:0");
+        JsonNode request = new ObjectMapper().readTree(codec.encodeRequest("system", "prompt", 100, 0.5));
+        assertEquals("prompt", request.at("/messages/0/content/0/text").asText());
+        assertEquals("system", request.at("/system/0/text").asText());
+        assertEquals(100, request.at("/inferenceConfig/maxTokens").asInt());
+
+        assertDecoded("hello", 10, 20, codec.decodeResponse(bytes(
+            "{\"output\":{\"message\":{\"role\":\"assistant\",\"content\":[{\"text\":\"hello\"}]}},"
+                + "\"usage\":{\"inputTokens\":10,\"outputTokens\":20,\"totalTokens\":30}}")));
+        assertDecoded("he", -1, -1, codec.decodeChunk(bytes(
+            "{\"contentBlockDelta\":{\"delta\":{\"text\":\"he\"},\"contentBlockIndex\":0}}")));
+        assertDecoded("", 12, 34, codec.decodeChunk(bytes("{\"messageStop\":{\"stopReason\":\"end_turn\"},"
+            + METRICS + "}")));
+    }
+
+    @Test
+    void unknownModelsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ModelCodec.forModel("meta.llama3-8b-instruct-v1:0"));
+        assertTrue(ModelCodec.forModel("us.anthropic.claude-3-5-haiku-20241022-v1:0") instanceof ClaudeCodec);
+    }
+
+    private static void assertDecoded(String text, int inputTokens, int outputTokens, ModelCodec.Decoded decoded) {
+        assertEquals(text, decoded.text);
+        assertEquals(inputTokens, decoded.inputTokens);
+        assertEquals(outputTokens, decoded.outputTokens);
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
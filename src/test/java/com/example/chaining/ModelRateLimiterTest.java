@@ -0,0 +1,120 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelRateLimiterTest {
+    private static final String MODEL = "anthropic.claude-3-haiku-20240307-v1:0";
+
+    @Test
+    void separateLimitersEachHaveTheirOwnBudget() {
+        ModelRateLimiter first = new ModelRateLimiter(MODEL, 1, 1_000_000, null);
+        ModelRateLimiter second = new ModelRateLimiter(MODEL, 1, 1_000_000, null);
+
+        assertEquals(Duration.ZERO, first.reserve(10));
+        assertEquals(Duration.ZERO, second.reserve(10));
+    }
+
+    @Test
+    void aThrottleHalvesTheRateOncePerCooldown() {
+        ModelRateLimiter limiter = new ModelRateLimiter(MODEL, 10, 1_000_000, null);
+
+        limiter.onThrottle();
+        assertEquals(5.0, limiter.currentRequestRate(), 1e-9);
+        // Throttles from calls already in flight count once
+        limiter.onThrottle();
+        limiter.onThrottle();
+        assertEquals(5.0, limiter.currentRequestRate(), 1e-9);
+        assertEquals(3, limiter.throttleCount());
+    }
+
+    @Test
+    void eachSuccessAddsBackASmallFractionUpToTheConfiguredRate() {
+        ModelRateLimiter limiter = new ModelRateLimiter(MODEL, 10, 1_000_000, null);
+        limiter.onThrottle();
+
+        limiter.onSuccess();
+        assertEquals(5.2, limiter.currentRequestRate(), 1e-9);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(10.0, limiter.currentRequestRate(), 1e-9);
+    }
+
+    @Test
+    void throttlesNeverTakeTheRateBelowItsFloor(@TempDir Path directory) throws Exception {
+        // Start from a state already near the floor whose last decrease is long past
+        ByteBuffer state = ByteBuffer.allocate(48).putDouble(0.06).putDouble(10).putDouble(1_000_000)
+            .putLong(0).putLong(1).putLong(0).flip();
+        Files.write(directory.resolve(MODEL.replace(':', '_')), state.array());
+        ModelRateLimiter limiter = new ModelRateLimiter(MODEL, 10, 1_000_000, directory);
+
+        limiter.onThrottle();
+        assertEquals(0.5, limiter.currentRequestRate(), 1e-9);
+    }
+
+    @Test
+    void limitersSharingADirectoryDrawOnOneBudget(@TempDir Path directory) {
+        // As in two worker processes
+        ModelRateLimiter first = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        ModelRateLimiter second = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+
+        assertEquals(Duration.ZERO, first.reserve(10));
+        Duration wait = second.reserve(10);
+        assertTrue(wait.toMillis() > 900, "waited " + wait);
+    }
+
+    @Test
+    void aThrottleSeenByOneSlowsTheOther(@TempDir Path directory) {
+        ModelRateLimiter first = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        ModelRateLimiter second = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        first.reserve(10);
+        first.onThrottle();
+
+        // One request owed at half the rate
+        Duration wait = second.reserve(10);
+        assertTrue(wait.toMillis() > 1900, "waited " + wait);
+        assertEquals(0.5, second.currentRequestRate(), 1e-9);
+    }
+
+    @Test
+    void successesLeaveTheSharedFileAloneUntilTheNextReservation(@TempDir Path directory) throws Exception {
+        ModelRateLimiter first = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        ModelRateLimiter second = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        first.reserve(10);
+        first.onThrottle();
+        Path file = directory.resolve(MODEL.replace(':', '_'));
+        byte[] before = Files.readAllBytes(file);
+
+        for (int i = 0; i < 25; i++) {
+            first.onSuccess();
+        }
+        assertArrayEquals(before, Files.readAllBytes(file));
+
+        first.reserve(10);
+        second.reserve(10);
+        assertEquals(1.0, second.currentRequestRate(), 1e-9);
+    }
+
+    @Test
+    void throttleTotalsCoverEveryLimiterSharingADirectory(@TempDir Path directory) {
+        ModelRateLimiter first = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        ModelRateLimiter second = new ModelRateLimiter(MODEL, 1, 1_000_000, directory);
+        first.onThrottle();
+        second.onThrottle();
+        second.onThrottle();
+
+        assertEquals(1, first.throttleCount());
+        assertEquals(3, first.totalThrottleCount());
+        assertEquals(3, second.totalThrottleCount());
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.chaining;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineServerTest {
+    private static final String MODEL = "anthropic.claude-3-haiku-20240307-v1:0";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final CompletableFuture<Void> architectGate = new CompletableFuture<>();
+    private PipelineServer server;
+
+    @AfterEach
+    void stop() {
+        architectGate.complete(null);
+        if (server != null) {
+            server.close(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    void aSubmittedJobRunsAndReportsItsOutputs() throws Exception {
+        start(2);
+        architectGate.complete(null);
+
+        HttpResponse<String> submitted = post("{\"request\":\"snake\",\"id\":\"job-1\"}");
+        assertEquals(202, submitted.statusCode());
+        assertEquals("/jobs/job-1", submitted.headers().firstValue("Location").orElse(null));
+        assertEquals("job-1", json(submitted).get("id").asText());
+
+        JsonNode job = awaitFinished("job-1");
+        assertEquals("SUCCESS", job.get("status").asText());
+        assertEquals("snake", job.get("request").asText());
+        assertEquals("architecture output", job.at("/outputs/architecture").asText());
+        assertEquals(4, job.get("stages").size());
+
+        JsonNode list = json(get("/jobs"));
+        assertEquals(1, list.size());
+        assertEquals("job-1", list.get(0).get("id").asText());
+    }
+
+    @Test
+    void jobsBeyondMaxRunningWaitInOrder() throws Exception {
+        start(1);
+        post("{\"request\":\"snake\",\"id\":\"first\"}");
+        post("{\"request\":\"pong\",\"id\":\"second\"}");
+
+        assertEquals("RUNNING", json(get("/jobs/first")).get("status").asText());
+        assertEquals("QUEUED", json(get("/jobs/second")).get("status").asText());
+        JsonNode health = json(get("/health"));
+        assertEquals(1, health.get("running").asInt());
+        assertEquals(1, health.get("queued").asInt());
+
+        architectGate.complete(null);
+        assertEquals("SUCCESS", awaitFinished("first").get("status").asText());
+        assertEquals("SUCCESS", awaitFinished("second").get("status").asText());
+    }
+
+    @Test
+    void badRequestsAreRejected() throws Exception {
+        start(1);
+        assertEquals(400, post("not json").statusCode());
+        assertEquals(400, post("{\"id\":\"no-request\"}").statusCode());
+        assertEquals(400, post("{\"request\":\"snake\",\"id\":\"a/b\"}").statusCode());
+        assertEquals(404, get("/jobs/missing").statusCode());
+        assertEquals(404, get("/jobs/missing/events").statusCode());
+        assertEquals(405, http.send(HttpRequest.newBuilder(uri("/jobs")).DELETE().build(),
+            HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        assertEquals(202, post("{\"request\":\"snake\",\"id\":\"busy\"}").statusCode());
+        assertEquals(409, post("{\"request\":\"snake\",\"id\":\"busy\"}").statusCode());
+    }
+
+    @Test
+    void aStreamRelaysEachStageThenTheResult() throws Exception {
+        start(1);
+        post("{\"request\":\"snake\",\"id\":\"streamed\"}");
+        CompletableFuture<HttpResponse<String>> stream = http.sendAsync(
+            HttpRequest.newBuilder(uri("/jobs/streamed/stream")).build(), HttpResponse.BodyHandlers.ofString());
+        architectGate.complete(null);
+
+        HttpResponse<String> response = stream.get();
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream"));
+        String body = response.body();
+        assertTrue(body.contains("event: chunk\ndata: {\"stage\":\"architecture\",\"text\":\"architecture output\"}"),
+            body);
+        assertTrue(body.contains("event: stage_end\ndata: {\"stage\":\"documentation\",\"status\":\"SUCCESS\"}"),
+            body);
+        assertTrue(body.indexOf("event: result") > body.lastIndexOf("event: stage_end"), body);
+    }
+
+    private void start(int maxRunning) throws Exception {
+        GamePipeline.PipelineAgents agents = new GamePipeline.PipelineAgents(
+            new FixedAgent("architecture output", architectGate), new FixedAgent("```python\npass\n```", null),
+            new FixedAgent("tests", null), new FixedAgent("docs", null), false);
+        server = new PipelineServer(agents, false, "127.0.0.1", 0, maxRunning, 10, null, false);
+    }
+
+    private JsonNode awaitFinished(String id) throws Exception {
+        for (int i = 0; i < 200; i++) {
+            JsonNode job = json(get("/jobs/" + id));
+            String status = job.get("status").asText();
+            if (!List.of("QUEUED", "RUNNING").contains(status)) {
+                return job;
+            }
+            Thread.sleep(25);
+        }
+        throw new AssertionError("Job " + id + " did not finish");
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return http.send(HttpRequest.newBuilder(uri(path)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String body) throws Exception {
+        return http.send(HttpRequest.newBuilder(uri("/jobs")).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+            HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.port() + path);
+    }
+
+    private JsonNode json(HttpResponse<String> response) throws Exception {
+        return objectMapper.readTree(response.body());
+    }
+
+    /**
+     * An agent that answers every call with the same text, once the gate (if any) opens.
+     */
+    private static final class FixedAgent extends BedrockAgent {
+        private final String output;
+        private final CompletableFuture<Void> gate;
+
+        FixedAgent(String output, CompletableFuture<Void> gate) {
+            super(new AgentContext(null, null, Runnable::run, false, BackoffPolicy.none(), null), MODEL, "system");
+            this.output = output;
+            this.gate = gate;
+        }
+
+        @Override
+        public CompletableFuture<String> runAsync(Prompt userInput, Span span) {
+            return gate == null ? CompletableFuture.completedFuture(output) : gate.thenApply(ignored -> output);
+        }
+    }
+}
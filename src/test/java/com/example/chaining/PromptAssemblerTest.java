@@ -0,0 +1,142 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptAssemblerTest {
+    private static final String REPEATED = "def winner(board):\n    return max(LINES, key=lambda line: score(board, line))\n";
+
+    @Test
+    void paragraphsSplitAtBlankLinesAndKeepThemWithThePrecedingParagraph() {
+        String text = "\n\nfirst line\nsecond line\n\n \nthird\n\nlast";
+        List<int[]> paragraphs = PromptAssembler.paragraphs(bytes(text));
+
+        assertEquals(3, paragraphs.size());
+        assertEquals(List.of("\n\nfirst line\nsecond line\n\n \n", "third\n\n", "last"), ranges(text, paragraphs, 1));
+        assertEquals(List.of("\n\nfirst line\nsecond line\n", "third\n", "last"), ranges(text, paragraphs, 2));
+    }
+
+    @Test
+    void paragraphsOfBlankTextAreEmpty() {
+        assertTrue(PromptAssembler.paragraphs(bytes("")).isEmpty());
+        assertTrue(PromptAssembler.paragraphs(bytes("\n  \n\n")).isEmpty());
+    }
+
+    @Test
+    void codeBlocksIncludeTheirFencesAndAnUnclosedBlockRunsToTheEnd() {
+        String text = "Intro\n```python\nx = 1\n```\nProse\n  ```\ny = 2\n  ```\nMore\n```\nopen";
+        List<int[]> blocks = PromptAssembler.codeBlocks(bytes(text));
+
+        assertEquals(List.of("```python\nx = 1\n```\n", "  ```\ny = 2\n  ```\n", "```\nopen"),
+            ranges(text, blocks, 1));
+        assertTrue(PromptAssembler.codeBlocks(bytes("no fences here\n``not one``\n")).isEmpty());
+    }
+
+    @Test
+    void withoutCompactionOutputsAreForwardedWhole() {
+        String architecture = "## Plan\n\n" + REPEATED + "\n";
+        Prompt prompt = new PromptAssembler()
+            .literal("A:\n")
+            .output(completed(architecture))
+            .literal("B:\n")
+            .code(completed(architecture))
+            .assemble().join();
+
+        assertEquals("A:\n" + architecture + "B:\n" + architecture, prompt.toString());
+    }
+
+    @Test
+    void dedupDropsRepeatedParagraphsAndMergesTheSlicesAroundThem() {
+        String short1 = "ok\n\n";
+        String architecture = "## Plan\n\n" + REPEATED + "\n";
+        String code = "# main.py\n\n" + short1 + REPEATED + "\n" + short1 + "print(winner(board))\n";
+        Prompt prompt = new PromptAssembler(PromptAssembler.Compaction.DEDUP)
+            .literal("Architecture:\n")
+            .output(completed(architecture))
+            .literal("Code:\n")
+            .output(completed(code))
+            .assemble().join();
+
+        // The short paragraph repeats too, but is under the size worth dropping
+        assertEquals("Architecture:\n" + architecture + "Code:\n# main.py\n\n" + short1 + short1
+            + "print(winner(board))\n", prompt.toString());
+        assertEquals(ArtifactStore.utf8Length(prompt.toString()), prompt.size());
+    }
+
+    @Test
+    void codeCompactionKeepsOnlyCodeBlocksOfCodeInputs() {
+        String code = "Here is the game.\n\n```python\nboard = [' '] * 9\n```\n\nRun it with python.\n";
+        String prose = "No code in this one.\n";
+        Prompt prompt = new PromptAssembler(PromptAssembler.Compaction.CODE)
+            .literal("Code:\n")
+            .code(completed(code))
+            .literal("Notes:\n")
+            .code(completed(prose))
+            .literal("Plan:\n")
+            .output(completed(code))
+            .assemble().join();
+
+        assertEquals("Code:\n```python\nboard = [' '] * 9\n```\nNotes:\n" + prose + "Plan:\n" + code,
+            prompt.toString());
+    }
+
+    @Test
+    void assemblyWaitsForUpstreamOutputs() {
+        ChunkPublisher upstream = new ChunkPublisher();
+        CompletableFuture<Prompt> prompt = new PromptAssembler()
+            .literal("Input: ")
+            .output(upstream)
+            .assemble();
+        upstream.emit("par");
+        upstream.emit("tial");
+
+        assertFalse(prompt.isDone());
+        upstream.complete();
+        assertEquals("Input: partial", prompt.join().toString());
+    }
+
+    @Test
+    void codeBlocksAreForwardedByteForByte() {
+        String code = "Intro \u00e9\n```\n" + REPEATED + "# \ud83d\ude00\n```\nOutro\n";
+        ChunkPublisher upstream = completed(code);
+        Prompt prompt = new PromptAssembler(PromptAssembler.Compaction.CODE).code(upstream).assemble().join();
+
+        byte[] expected = ("```\n" + REPEATED + "# \ud83d\ude00\n```\n").getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, prompt.toString().getBytes(StandardCharsets.UTF_8));
+        assertEquals(expected.length, prompt.size());
+    }
+
+    private static ChunkPublisher completed(String text) {
+        ChunkPublisher publisher = new ChunkPublisher();
+        // Split mid-line so the encoder, not the chunking, decides the bytes
+        int half = text.length() / 2;
+        publisher.emit(text.substring(0, half));
+        publisher.emit(text.substring(half));
+        publisher.complete();
+        return publisher;
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The text of each range, from its start to the given end index.
+     */
+    private static List<String> ranges(String text, List<int[]> ranges, int endIndex) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return ranges.stream()
+            .map(range -> new String(bytes, range[0], range[endIndex] - range[0], StandardCharsets.UTF_8))
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PromptTest {
+    private static final List<String> MODELS = List.of("anthropic.claude-3-haiku-20240307-v1:0",
+        "amazon.titan-text-express-v1", "amazon.nova-lite-v1:0");
+
+    @Test
+    void ropeEncodesToTheSameRequestBodyAsTheJoinedString() throws IOException {
+        // Long enough to cross the generator's buffers, with escapes and a surrogate pair at many offsets
+        StringBuilder upstream = new StringBuilder();
+        for (int i = 0; upstream.length() < 40_000; i++) {
+            upstream.append("Line ").append(i).append(": \"quoted\"\t\\ café 中文 😀")
+                .append(i % 7 == 0 ? "\u0001\n" : "\n");
+        }
+        Artifact decodedLater = undecoded(upstream.toString());
+        Prompt prompt = new Prompt(List.of("Before:\n", decodedLater, "\nMiddle ", decodedLater.slice(3, 5000),
+            "\nAfter 😀"));
+        String joined = "Before:\n" + upstream + "\nMiddle " + decodedLater.slice(3, 5000).text() + "\nAfter 😀";
+
+        for (String model : MODELS) {
+            ModelCodec codec = ModelCodec.forModel(model);
+            assertArrayEquals(codec.encodeRequest("system", joined, 4000, 0.7),
+                codec.encodeRequest("system", prompt, 4000, 0.7), model);
+        }
+    }
+
+    @Test
+    void sizeAndLengthMatchTheJoinedString() {
+        Prompt prompt = new Prompt(List.of("中:", undecoded("café 😀 end")));
+        String joined = "中:café 😀 end";
+
+        assertEquals(ArtifactStore.utf8Length(joined), prompt.size());
+        assertEquals(joined.length(), prompt.length());
+        assertEquals(joined, prompt.toString());
+    }
+
+    @Test
+    void cacheKeyDependsOnlyOnTheText() {
+        Prompt prompt = new Prompt(List.of("Based on: ", undecoded("architecture text")));
+
+        assertEquals(ResponseCache.key("model", "system", "Based on: architecture text", "{}"),
+            ResponseCache.key("model", "system", prompt, "{}"));
+    }
+
+    /**
+     * An artifact without its text, so reads go through the bytes.
+     */
+    private static Artifact undecoded(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new Artifact(bytes, bytes.length);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecordLogTest {
+    @Test
+    void damagedBodyInTheMiddleLosesOnlyThatRecord(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("test.log");
+        long second = write(file, "first", "second", "third").get(1);
+        corrupt(file, second + 2);
+
+        assertEquals(List.of("first", "third"), read(file));
+        assertEquals(List.of("first", "third"), read(file));
+    }
+
+    @Test
+    void damagedLengthInTheMiddleResynchronisesOnTheNextRecord(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("test.log");
+        long second = write(file, "first", "second", "third", "fourth").get(1);
+        long size = Files.size(file);
+        // A length pointing past the end of the file
+        corrupt(file, second - RecordLog.HEADER_BYTES);
+
+        assertEquals(List.of("first", "third", "fourth"), read(file));
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    void tornTailIsTruncatedAndAppendsContinueFromTheLastGoodRecord(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("test.log");
+        long last = write(file, "first", "second", "third").get(2);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.setLength(last + 2);
+        }
+
+        try (RecordLog log = RecordLog.open(file, "Test log", 1, (offset, body) -> { })) {
+            log.append("fourth".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(List.of("first", "second", "fourth"), read(file));
+    }
+
+    @Test
+    void damagedLastRecordIsTruncated(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("test.log");
+        long last = write(file, "first", "second").get(1);
+        corrupt(file, last + 1);
+
+        assertEquals(List.of("first"), read(file));
+        assertEquals(last - RecordLog.HEADER_BYTES, Files.size(file));
+    }
+
+    @Test
+    void logsSharingAFileAppendAfterEachOther(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("test.log");
+        // As in two processes: each has its own channel and saw an empty file on open
+        try (RecordLog first = RecordLog.open(file, "Test log", 1, (offset, body) -> { });
+             RecordLog second = RecordLog.open(file, "Test log", 1, (offset, body) -> { })) {
+            long one = first.append("one".getBytes(StandardCharsets.UTF_8));
+            long two = second.append("two".getBytes(StandardCharsets.UTF_8));
+            first.append("three".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals("two", new String(first.read(two, 3), StandardCharsets.UTF_8));
+            assertEquals("one", new String(second.read(one, 3), StandardCharsets.UTF_8));
+        }
+        assertEquals(List.of("one", "two", "three"), read(file));
+    }
+
+    /**
+     * Writes the records and returns their body offsets.
+     */
+    private static List<Long> write(Path file, String... records) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        try (RecordLog log = RecordLog.open(file, "Test log", 1, (bodyOffset, body) -> { })) {
+            for (String record : records) {
+                offsets.add(log.append(record.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return offsets;
+    }
+
+    private static List<String> read(Path file) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (RecordLog log = RecordLog.open(file, "Test log", 1,
+            (bodyOffset, body) -> records.add(new String(body, StandardCharsets.UTF_8)))) {
+            return records;
+        }
+    }
+
+    static void corrupt(Path file, long position) throws IOException {
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(position);
+            int value = raw.read();
+            raw.seek(position);
+            raw.write(value ^ 0x7f);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResponseCacheTest {
+    private static final String MODEL = "anthropic.claude-3-haiku-20240307-v1:0";
+
+    @Test
+    void identicalCallsInFlightShareOneLoad() throws Exception {
+        try (ResponseCache cache = new ResponseCache(null, 1024)) {
+            AtomicInteger loads = new AtomicInteger();
+            CompletableFuture<String> call = new CompletableFuture<>();
+            String key = key("prompt");
+
+            CompletableFuture<String> first = cache.getOrLoad(MODEL, key, () -> {
+                loads.incrementAndGet();
+                return call;
+            });
+            CompletableFuture<String> second = cache.getOrLoad(MODEL, key, () -> {
+                loads.incrementAndGet();
+                return new CompletableFuture<>();
+            });
+            assertFalse(first.isDone());
+
+            call.complete("answer");
+            assertEquals("answer", first.join());
+            assertEquals("answer", second.join());
+            assertEquals(1, loads.get());
+            assertEquals(1, cache.stats().get(MODEL).sharedInFlight.sum());
+            assertEquals(1, cache.stats().get(MODEL).misses.sum());
+        }
+    }
+
+    @Test
+    void aFailedLoadIsNotCached() throws Exception {
+        try (ResponseCache cache = new ResponseCache(null, 1024)) {
+            String key = key("prompt");
+            CompletableFuture<String> failed = cache.getOrLoad(MODEL, key,
+                () -> CompletableFuture.failedFuture(new IllegalStateException("throttled")));
+            assertThrows(Exception.class, failed::join);
+
+            assertEquals("answer", cache.getOrLoad(MODEL, key,
+                () -> CompletableFuture.completedFuture("answer")).join());
+            assertEquals(2, cache.stats().get(MODEL).misses.sum());
+        }
+    }
+
+    @Test
+    void theLeastRecentlyUsedEntryIsEvictedFirst() throws Exception {
+        try (ResponseCache cache = new ResponseCache(null, 20)) {
+            load(cache, "a", "0123456789");
+            load(cache, "b", "0123456789");
+            // Reading "a" makes "b" the eldest
+            load(cache, "a", "unused");
+            load(cache, "c", "0123456789");
+
+            assertEquals("0123456789", load(cache, "a", "reloaded"));
+            assertEquals("reloaded", load(cache, "b", "reloaded"));
+        }
+    }
+
+    @Test
+    void responsesSurviveAReopen(@TempDir Path directory) throws Exception {
+        try (ResponseCache cache = new ResponseCache(directory, 1024)) {
+            load(cache, "prompt", "answer");
+        }
+
+        try (ResponseCache cache = new ResponseCache(directory, 1024)) {
+            CompletableFuture<String> hit = cache.getOrLoad(MODEL, key("prompt"),
+                () -> CompletableFuture.completedFuture("reloaded"));
+            assertEquals("answer", hit.join());
+            assertEquals(1, cache.stats().get(MODEL).diskHits.sum());
+        }
+    }
+
+    @Test
+    void keysDependOnEveryField() {
+        String key = ResponseCache.key(MODEL, "system", "ab", "{}");
+        assertEquals(key, ResponseCache.key(MODEL, "system", Prompt.of("ab"), "{}"));
+        assertFalse(key.equals(ResponseCache.key(MODEL, "systema", "b", "{}")));
+        assertFalse(key.equals(ResponseCache.key(MODEL, "system", "ab", "{\"temperature\":0}")));
+        assertEquals(64, key.length());
+    }
+
+    private static String load(ResponseCache cache, String prompt, String response) {
+        return cache.getOrLoad(MODEL, key(prompt), () -> CompletableFuture.completedFuture(response)).join();
+    }
+
+    private static String key(String prompt) {
+        return ResponseCache.key(MODEL, "system", prompt, "{}");
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.chaining;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageGraphTest {
+    private static final String MODEL = "anthropic.claude-3-haiku-20240307-v1:0";
+
+    @Test
+    void independentStagesStartTogetherAndADependentWaitsForAllItsInputs() throws Exception {
+        ScriptedAgent design = new ScriptedAgent();
+        ScriptedAgent art = new ScriptedAgent();
+        ScriptedAgent build = new ScriptedAgent();
+        StageGraph graph = new StageGraph()
+            .addStage("design", "Design", design, List.of(), inputs -> prompt("brief"))
+            .addStage("art", "Art", art, List.of(), inputs -> prompt("style"))
+            .addStage("build", "Build", build, List.of("design", "art"), StageGraphTest::joined);
+
+        StageGraph.Execution execution = graph.run(false, new StageGraph.StageListener() { });
+        assertEquals(List.of("brief"), design.prompts);
+        assertEquals(List.of("style"), art.prompts);
+        assertEquals(List.of(), build.prompts);
+
+        design.answer("plan");
+        assertEquals(List.of(), build.prompts);
+        art.answer("sprites");
+        assertEquals(List.of("plan+sprites"), build.prompts);
+
+        build.answer("game");
+        assertEquals(Map.of("design", "plan", "art", "sprites", "build", "game"), execution.await());
+        assertEquals(List.of("design", "art", "build"),
+            execution.timings().stream().map(timing -> timing.id).collect(Collectors.toList()));
+        assertTrue(execution.timings().stream().allMatch(timing -> timing.state == StageGraph.State.SUCCESS));
+    }
+
+    @Test
+    void aFailedStageSkipsItsDependentsButNotTheRest() {
+        ScriptedAgent design = new ScriptedAgent();
+        ScriptedAgent art = new ScriptedAgent();
+        ScriptedAgent build = new ScriptedAgent();
+        StageGraph graph = new StageGraph()
+            .addStage("design", "Design", design, List.of(), inputs -> prompt("brief"))
+            .addStage("build", "Build", build, List.of("design"), StageGraphTest::joined)
+            .addStage("art", "Art", art, List.of(), inputs -> prompt("style"));
+
+        StageGraph.Execution execution = graph.run(false, new StageGraph.StageListener() { });
+        IllegalStateException failure = new IllegalStateException("model down");
+        design.fail(failure);
+        art.answer("sprites");
+
+        assertSame(failure, assertThrows(IllegalStateException.class, execution::await));
+        assertEquals(List.of(), build.prompts);
+        Map<String, StageGraph.State> states = execution.timings().stream()
+            .collect(Collectors.toMap(timing -> timing.id, timing -> timing.state));
+        assertEquals(Map.of("design", StageGraph.State.FAILED, "build", StageGraph.State.SKIPPED,
+            "art", StageGraph.State.SUCCESS), states);
+    }
+
+    @Test
+    void stagesMustFollowTheirDependencies() {
+        StageGraph graph = new StageGraph().addStage("design", "Design", new ScriptedAgent(), List.of(),
+            inputs -> prompt("brief"));
+
+        assertThrows(IllegalArgumentException.class, () -> graph.addStage("build", "Build", new ScriptedAgent(),
+            List.of("test"), StageGraphTest::joined));
+        assertThrows(IllegalArgumentException.class, () -> graph.addStage("design", "Design", new ScriptedAgent(),
+            List.of(), inputs -> prompt("again")));
+    }
+
+    private static CompletableFuture<Prompt> prompt(String text) {
+        return CompletableFuture.completedFuture(Prompt.of(text));
+    }
+
+    private static CompletableFuture<Prompt> joined(Map<String, ChunkPublisher> inputs) {
+        List<CompletableFuture<String>> texts = inputs.values().stream().map(ChunkPublisher::text)
+            .collect(Collectors.toList());
+        return CompletableFuture.allOf(texts.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> Prompt.of(texts.stream().map(CompletableFuture::join)
+                .collect(Collectors.joining("+"))));
+    }
+
+    /**
+     * An agent whose single call is answered by the test.
+     */
+    private static final class ScriptedAgent extends BedrockAgent {
+        final List<String> prompts = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+
+        ScriptedAgent() {
+            super(new AgentContext(null, null, Runnable::run, false, BackoffPolicy.none(), null), MODEL, "system");
+        }
+
+        @Override
+        public CompletableFuture<String> runAsync(Prompt userInput, Span span) {
+            prompts.add(userInput.toString());
+            return response;
+        }
+
+        void answer(String text) {
+            response.complete(text);
+        }
+
+        void fail(Throwable error) {
+            response.completeExceptionally(error);
+        }
+    }
+}